@@ -0,0 +1,181 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Rating;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.UserStorage;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.*;
+
+// одинаковые пользователи, фильмы, лайки и дружба для базы и хранилищ в памяти; id идут подряд с 1
+class BenchmarkDataset {
+    static final int LIKES_PER_USER = 20;
+    static final int FRIENDS_PER_USER = 10;
+    static final int GENRES_COUNT = 6;
+    static final int RATINGS_COUNT = 5;
+
+    private static final LocalDate RELEASE_DATE = LocalDate.of(2000, 1, 1);
+    private static final LocalDate BIRTHDAY = LocalDate.of(1990, 1, 1);
+
+    final int users;
+    final int films;
+    // лайки по пользователям: likes[u - 1] — id фильмов, которые лайкнул пользователь u
+    final long[][] likes;
+    // дружба хранится в одном направлении: friends[u - 1] — кого пользователь u добавил в друзья
+    final long[][] friends;
+    // жанры по фильмам: genres[f - 1] — id жанров фильма f по возрастанию
+    final int[][] genres;
+
+    private final Set<Long> likePairs = new HashSet<>();
+    private final Set<Long> friendPairs = new HashSet<>();
+
+    BenchmarkDataset(int users, long seed) {
+        this.users = users;
+        this.films = Math.max(users / 10, 100);
+        Random random = new Random(seed);
+        likes = new long[users][];
+        friends = new long[users][];
+        genres = new int[films][];
+        for (int u = 1; u <= users; u++) {
+            likes[u - 1] = pickLikes(random, u);
+        }
+        for (int u = 1; u <= users; u++) {
+            friends[u - 1] = pickFriends(random, u);
+        }
+        for (int f = 1; f <= films; f++) {
+            genres[f - 1] = random.ints(1 + random.nextInt(3), 1, GENRES_COUNT + 1)
+                    .distinct()
+                    .sorted()
+                    .toArray();
+        }
+    }
+
+    boolean isLiked(long filmId, long userId) {
+        return likePairs.contains(pair(userId, filmId));
+    }
+
+    boolean isFriend(long userId, long otherId) {
+        return friendPairs.contains(pair(userId, otherId)) || friendPairs.contains(pair(otherId, userId));
+    }
+
+    // загрузка в базу пакетами, напрямую в таблицы: так сотни тысяч строк вставляются за секунды
+    void load(JdbcTemplate jdbc) {
+        List<Object[]> userRows = new ArrayList<>(users);
+        for (int u = 1; u <= users; u++) {
+            userRows.add(new Object[]{"login" + u, "user" + u + "@mail.ru", "name" + u, Date.valueOf(BIRTHDAY)});
+        }
+        jdbc.batchUpdate("INSERT INTO users (login, email, name, birthday) VALUES (?, ?, ?, ?)", userRows);
+
+        int[] likesCount = new int[films];
+        for (long[] userLikes : likes) {
+            for (long filmId : userLikes) {
+                likesCount[(int) filmId - 1]++;
+            }
+        }
+        List<Object[]> filmRows = new ArrayList<>(films);
+        List<Object[]> genreRows = new ArrayList<>();
+        for (int f = 1; f <= films; f++) {
+            filmRows.add(new Object[]{"film" + f, "description" + f, Date.valueOf(RELEASE_DATE), 100,
+                    rating(f), likesCount[f - 1]});
+            for (int genreId : genres[f - 1]) {
+                genreRows.add(new Object[]{f, genreId});
+            }
+        }
+        jdbc.batchUpdate("INSERT INTO films (name, description, release_date, duration, rating_id, likes_count) "
+                + "VALUES (?, ?, ?, ?, ?, ?)", filmRows);
+        jdbc.batchUpdate("INSERT INTO film_genres (film_id, genre_id) VALUES (?, ?)", genreRows);
+
+        List<Object[]> likeRows = new ArrayList<>();
+        List<Object[]> friendRows = new ArrayList<>();
+        for (int u = 1; u <= users; u++) {
+            for (long filmId : likes[u - 1]) {
+                likeRows.add(new Object[]{u, filmId});
+            }
+            // так же, как UserDbStorage.addFriend: прямая запись подтверждена, обратная — нет
+            for (long friendId : friends[u - 1]) {
+                friendRows.add(new Object[]{u, friendId, true});
+                friendRows.add(new Object[]{friendId, u, false});
+            }
+        }
+        jdbc.batchUpdate("INSERT INTO likes (user_id, film_id) VALUES (?, ?)", likeRows);
+        jdbc.batchUpdate("INSERT INTO user_friends (user_id, friend_id, confirmed) VALUES (?, ?, ?)", friendRows);
+    }
+
+    // загрузка в хранилища в памяти через их собственный API
+    void load(FilmStorage filmStorage, UserStorage userStorage) {
+        for (int u = 1; u <= users; u++) {
+            User user = new User();
+            user.setLogin("login" + u);
+            user.setEmail("user" + u + "@mail.ru");
+            user.setName("name" + u);
+            user.setBirthday(BIRTHDAY);
+            userStorage.create(user);
+        }
+        for (int f = 1; f <= films; f++) {
+            Film film = new Film();
+            film.setName("film" + f);
+            film.setDescription("description" + f);
+            film.setReleaseDate(RELEASE_DATE);
+            film.setDuration(100);
+            Rating mpa = new Rating();
+            mpa.setId(rating(f));
+            film.setMpa(mpa);
+            Set<Genre> filmGenres = new LinkedHashSet<>();
+            for (int genreId : genres[f - 1]) {
+                Genre genre = new Genre();
+                genre.setId(genreId);
+                filmGenres.add(genre);
+            }
+            film.setGenres(filmGenres);
+            filmStorage.create(film);
+        }
+        for (int u = 1; u <= users; u++) {
+            for (long filmId : likes[u - 1]) {
+                filmStorage.addLikeByUser(filmId, (long) u);
+            }
+            for (long friendId : friends[u - 1]) {
+                userStorage.addFriend((long) u, friendId);
+            }
+        }
+    }
+
+    private static int rating(int filmId) {
+        return filmId % RATINGS_COUNT + 1;
+    }
+
+    private static long pair(long first, long second) {
+        return first << 32 | second;
+    }
+
+    // случайные разные фильмы для лайков пользователя
+    private long[] pickLikes(Random random, long userId) {
+        long[] picked = new long[Math.min(LIKES_PER_USER, films)];
+        int size = 0;
+        while (size < picked.length) {
+            long filmId = 1 + random.nextInt(films);
+            if (likePairs.add(pair(userId, filmId))) {
+                picked[size++] = filmId;
+            }
+        }
+        return picked;
+    }
+
+    // случайные друзья пользователя; пары, уже связанные в любую сторону, пропускаются
+    private long[] pickFriends(Random random, long userId) {
+        long[] picked = new long[FRIENDS_PER_USER];
+        int size = 0;
+        for (int attempt = 0; attempt < FRIENDS_PER_USER * 10 && size < picked.length; attempt++) {
+            long friendId = 1 + random.nextInt(users);
+            if (friendId != userId && !isFriend(userId, friendId)) {
+                friendPairs.add(pair(userId, friendId));
+                picked[size++] = friendId;
+            }
+        }
+        return Arrays.copyOf(picked, size);
+    }
+}
@@ -0,0 +1,60 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import ru.yandex.practicum.filmorate.index.FriendGraphIndex;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+// общие друзья по графу в памяти против обхода Map друзей с contains; otherFriends — друзей у второго
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FriendGraphBenchmark {
+
+    private static final int USERS = 1_000_000;
+
+    @Param({"50000"})
+    public int friends;
+
+    @Param({"100", "50000"})
+    public int otherFriends;
+
+    private final FriendGraphIndex index = new FriendGraphIndex();
+    private Map<Long, Boolean> friendMap;
+    private Map<Long, Boolean> otherFriendMap;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        long[] first = random.longs(friends, 1, USERS).distinct().sorted().toArray();
+        long[] second = random.longs(otherFriends, 1, USERS).distinct().sorted().toArray();
+        index.rebuild(Map.of(1L, first, 2L, second));
+        friendMap = toMap(first);
+        otherFriendMap = toMap(second);
+    }
+
+    @Benchmark
+    public long[] sortedIntersection() {
+        return index.commonFriends(1L, 2L);
+    }
+
+    @Benchmark
+    public List<Long> boxedMapLookup() {
+        return otherFriendMap.keySet()
+                .stream()
+                .filter(friendMap.keySet()::contains)
+                .toList();
+    }
+
+    private static Map<Long, Boolean> toMap(long[] ids) {
+        Map<Long, Boolean> map = new HashMap<>();
+        for (long id : ids) {
+            map.put(id, true);
+        }
+        return map;
+    }
+}
@@ -0,0 +1,98 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.FilmorateApplication;
+import ru.yandex.practicum.filmorate.service.FilmService;
+import ru.yandex.practicum.filmorate.service.UserService;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// HTTP-запросы на потоках Tomcat и на виртуальных (профиль virtual): каждый поток JMH — клиент без пауз
+// запуск: mvn -Pjmh verify -DskipTests -Djmh.includes=HttpBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Threads(400)
+@Fork(1)
+public class HttpBenchmark {
+
+    private static final int USERS = 10_000;
+
+    @Param({"platform", "virtual"})
+    public String threads;
+
+    private ConfigurableApplicationContext context;
+    private HttpClient client;
+    private String baseUrl;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SpringApplicationBuilder application = new SpringApplicationBuilder(FilmorateApplication.class)
+                .properties(
+                        "server.port=0",
+                        "spring.datasource.url=jdbc:h2:mem:http-benchmark;DB_CLOSE_DELAY=-1",
+                        "filmorate.likes.reconcile-on-startup=false",
+                        "logging.level.org.zalando.logbook=WARN",
+                        "logging.level.ru.yandex.practicum.filmorate.service=WARN");
+        if ("virtual".equals(threads)) {
+            application.profiles("virtual");
+        }
+        context = application.run();
+        new BenchmarkDataset(USERS, 42).load(context.getBean(JdbcTemplate.class));
+        // индексы в памяти строятся при старте, когда база еще пустая
+        context.getBean(FilmService.class).rebuildPopularityIndex();
+        context.getBean(UserService.class).rebuildFriendGraph();
+
+        int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+        baseUrl = "http://localhost:" + port;
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        client.close();
+        context.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        private final Random random = new Random();
+
+        long randomUserId() {
+            return 1 + random.nextInt(USERS);
+        }
+    }
+
+    @Benchmark
+    public String getPopularFilms() throws IOException, InterruptedException {
+        return get("/films/popular?count=10");
+    }
+
+    @Benchmark
+    public String getCommonFriends(Client user) throws IOException, InterruptedException {
+        return get("/users/" + user.randomUserId() + "/friends/common/" + user.randomUserId());
+    }
+
+    private String get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path)).GET().build();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException(path + " вернул " + response.statusCode());
+        }
+        return response.body();
+    }
+}
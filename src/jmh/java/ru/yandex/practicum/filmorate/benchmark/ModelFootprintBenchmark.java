@@ -0,0 +1,96 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jol.info.GraphLayout;
+import ru.yandex.practicum.filmorate.collection.LongFlagMap;
+import ru.yandex.practicum.filmorate.collection.LongHashSet;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+// миллион лайков и дружб в HashSet/HashMap против LongHashSet/LongFlagMap: время заполнения и bytesPerEdge по JOL
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djdk.attach.allowAttachSelf=true")
+public class ModelFootprintBenchmark {
+
+    private static final int EDGES = 1_000_000;
+    // лайки: 10 000 фильмов по 100 лайков; дружба: 100 000 пользователей по 10 друзей
+    private static final int FILMS = 10_000;
+    private static final int USERS = 100_000;
+
+    @Param({"boxed", "primitive"})
+    public String collections;
+
+    @Param({"likes", "friends"})
+    public String edges;
+
+    private long[] owners;
+    private long[] targets;
+    private Object[] built;
+    private int edgeCount;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public double bytesPerEdge;
+        private ModelFootprintBenchmark benchmark;
+
+        @Setup(Level.Iteration)
+        public void reset(ModelFootprintBenchmark benchmark) {
+            this.benchmark = benchmark;
+            bytesPerEdge = 0;
+        }
+
+        // граф объектов обходится после замера, чтобы не попасть во время заполнения
+        @TearDown(Level.Iteration)
+        public void measure() {
+            GraphLayout layout = GraphLayout.parseInstance((Object) benchmark.built);
+            long ownersArray = GraphLayout.parseInstance((Object) new Object[benchmark.built.length]).totalSize();
+            bytesPerEdge = (double) (layout.totalSize() - ownersArray) / benchmark.edgeCount;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int ownerCount = "likes".equals(edges) ? FILMS : USERS;
+        int targetRange = "likes".equals(edges) ? 1_000_000 : USERS;
+        Random random = new Random(42);
+        owners = new long[EDGES];
+        targets = new long[EDGES];
+        for (int i = 0; i < EDGES; i++) {
+            owners[i] = i % ownerCount + 1;
+            targets[i] = random.nextInt(targetRange) + 1;
+        }
+        built = new Object[ownerCount + 1];
+    }
+
+    @Benchmark
+    public Object[] fill(Footprint footprint) {
+        Arrays.fill(built, null);
+        edgeCount = 0;
+        boolean boxed = "boxed".equals(collections);
+        boolean likes = "likes".equals(edges);
+        for (int i = 0; i < EDGES; i++) {
+            int owner = (int) owners[i];
+            if (built[owner] == null) {
+                built[owner] = boxed ? (likes ? new HashSet<Long>() : new HashMap<Long, Boolean>())
+                        : (likes ? new LongHashSet() : new LongFlagMap());
+            }
+            boolean added = switch (built[owner]) {
+                case HashSet<?> set -> ((Set<Long>) set).add(targets[i]);
+                case HashMap<?, ?> map -> ((Map<Long, Boolean>) map).put(targets[i], true) == null;
+                case LongHashSet set -> set.add(targets[i]);
+                case LongFlagMap map -> map.put(targets[i], true);
+                default -> throw new IllegalStateException();
+            };
+            if (added) {
+                edgeCount++;
+            }
+        }
+        return built;
+    }
+}
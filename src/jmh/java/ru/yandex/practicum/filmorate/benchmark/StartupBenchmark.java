@@ -0,0 +1,106 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// время от запуска процесса до первого ответа /films/popular: обычный jar против профиля startup (AOT и AppCDS)
+// запуск: mvn -Pjmh,startup verify -DskipTests -Djmh.includes=StartupBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 10)
+@Fork(1)
+public class StartupBenchmark {
+
+    private static final Path TARGET = Path.of("target");
+    private static final Path STARTUP = TARGET.resolve("startup");
+    private static final long TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(2);
+
+    @Param({"default", "cds-aot"})
+    public String build;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private List<String> command;
+    private URI uri;
+    private Process process;
+
+    @Setup(Level.Trial)
+    public void findBuild() throws IOException {
+        command = new ArrayList<>(List.of(Path.of(System.getProperty("java.home"), "bin", "java").toString()));
+        if ("default".equals(build)) {
+            command.addAll(List.of("-jar", findJar(TARGET, ".jar").toString()));
+        } else {
+            command.addAll(List.of("-XX:SharedArchiveFile=" + STARTUP.resolve("filmorate.jsa"),
+                    "-Dspring.aot.enabled=true", "-jar", findJar(STARTUP, "-startup.jar").toString()));
+        }
+        command.add("--spring.datasource.url=jdbc:h2:mem:startup-benchmark");
+    }
+
+    @Setup(Level.Invocation)
+    public void choosePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            uri = URI.create("http://localhost:" + socket.getLocalPort() + "/films/popular?count=10");
+        }
+    }
+
+    @Benchmark
+    public int firstRequest() throws IOException, InterruptedException {
+        List<String> arguments = new ArrayList<>(command);
+        arguments.add("--server.port=" + uri.getPort());
+        long start = System.nanoTime();
+        process = new ProcessBuilder(arguments)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        HttpRequest request = HttpRequest.newBuilder(uri).GET().build();
+        while (System.nanoTime() - start < TIMEOUT_NANOS) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException("Приложение завершилось с кодом " + process.exitValue());
+            }
+            try {
+                HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                if (response.statusCode() == 200) {
+                    return response.statusCode();
+                }
+            } catch (ConnectException e) {
+                // порт еще не слушается
+            }
+            Thread.sleep(10);
+        }
+        throw new IllegalStateException("Приложение не ответило за 2 минуты");
+    }
+
+    @TearDown(Level.Invocation)
+    public void stop() throws InterruptedException {
+        process.destroy();
+        if (!process.waitFor(30, TimeUnit.SECONDS)) {
+            process.destroyForcibly().waitFor();
+        }
+    }
+
+    // собранный jar с данным окончанием имени; сборки нужно подготовить заранее: mvn -Pstartup package
+    private static Path findJar(Path directory, String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().startsWith("filmorate-"))
+                    .filter(file -> file.getFileName().toString().endsWith(suffix))
+                    .filter(file -> suffix.endsWith("-startup.jar") || !file.toString().endsWith("-startup.jar"))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalStateException("В " + directory + " нет сборки *" + suffix
+                            + ", сначала выполните mvn -Pstartup package -DskipTests"));
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.InMemoryFilmStorage;
+import ru.yandex.practicum.filmorate.storage.InMemoryUserStorage;
+import ru.yandex.practicum.filmorate.storage.UserStorage;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// хранилища в базе и в памяти на одном наборе данных
+// запуск: mvn -Pjmh verify -DskipTests, результаты пишутся в target/jmh-result.json
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StorageBenchmark {
+
+    private static final int POPULAR_COUNT = 10;
+    // сколько заранее выбранных пар перебирают пишущие бенчмарки
+    private static final int PAIRS = 1024;
+
+    @Param({"db", "memory"})
+    public String storage;
+
+    @Param({"1000", "10000"})
+    public int users;
+
+    private AnnotationConfigApplicationContext context;
+    private FilmStorage filmStorage;
+    private UserStorage userStorage;
+
+    private long[][] commonFriendPairs;
+    private long[][] newLikes;
+    private long[][] newFriendships;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkDataset dataset = new BenchmarkDataset(users, 42);
+        if ("db".equals(storage)) {
+            context = new AnnotationConfigApplicationContext(BenchmarkDbConfig.class);
+            dataset.load(context.getBean(JdbcTemplate.class));
+            filmStorage = context.getBean(FilmStorage.class);
+            userStorage = context.getBean(UserStorage.class);
+        } else {
+            userStorage = new InMemoryUserStorage();
+            filmStorage = new InMemoryFilmStorage(userStorage);
+            dataset.load(filmStorage, userStorage);
+        }
+
+        Random random = new Random(7);
+        commonFriendPairs = new long[PAIRS][];
+        newLikes = new long[PAIRS][];
+        newFriendships = new long[PAIRS][];
+        for (int i = 0; i < PAIRS; i++) {
+            commonFriendPairs[i] = new long[]{randomId(random, users), randomId(random, users)};
+            // пишущие бенчмарки берут только пары, которых еще нет в наборе данных
+            long filmId;
+            long userId;
+            do {
+                filmId = randomId(random, dataset.films);
+                userId = randomId(random, users);
+            } while (dataset.isLiked(filmId, userId));
+            newLikes[i] = new long[]{filmId, userId};
+            long friendId;
+            do {
+                userId = randomId(random, users);
+                friendId = randomId(random, users);
+            } while (userId == friendId || dataset.isFriend(userId, friendId));
+            newFriendships[i] = new long[]{userId, friendId};
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (context != null) {
+            context.close();
+        }
+    }
+
+    @Benchmark
+    public Object getPopularFilms() {
+        return filmStorage.getPopularFilms(POPULAR_COUNT);
+    }
+
+    @Benchmark
+    public Object getCommonFriends() {
+        long[] pair = commonFriendPairs[nextIndex()];
+        return userStorage.getCommonFriends(pair[0], pair[1]);
+    }
+
+    // полный каталог вместе с жанрами: в базе это один запрос с соединением film_genres
+    @Benchmark
+    public void findAllWithGenres(Blackhole blackhole) {
+        filmStorage.streamAll(blackhole::consume);
+    }
+
+    // лайк сразу снимается, чтобы набор данных не менялся от итерации к итерации
+    @Benchmark
+    public boolean addLikeByUser() {
+        long[] like = newLikes[nextIndex()];
+        boolean added = filmStorage.addLikeByUser(like[0], like[1]);
+        filmStorage.deleteLikeByUser(like[0], like[1]);
+        return added;
+    }
+
+    // addFriend пишет обе стороны дружбы, поэтому и удаляются обе
+    @Benchmark
+    public void addFriend() {
+        long[] friendship = newFriendships[nextIndex()];
+        userStorage.addFriend(friendship[0], friendship[1]);
+        userStorage.deleteFriend(friendship[0], friendship[1]);
+        userStorage.deleteFriend(friendship[1], friendship[0]);
+    }
+
+    private int nextIndex() {
+        next = (next + 1) % PAIRS;
+        return next;
+    }
+
+    private static long randomId(Random random, int bound) {
+        return 1 + random.nextInt(bound);
+    }
+}
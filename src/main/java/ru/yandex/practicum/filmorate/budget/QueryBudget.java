@@ -0,0 +1,14 @@
+package ru.yandex.practicum.filmorate.budget;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// сколько SQL-запросов может выполнить один вызов метода контроллера;
+// превышение пишется в лог, а при filmorate.query-budget.strict=true завершает запрос ошибкой
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface QueryBudget {
+    int value();
+}
@@ -0,0 +1,38 @@
+package ru.yandex.practicum.filmorate.budget;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpResponse;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+// заголовок X-Query-Count нужно выставить до записи тела, после нее ответ уже отправлен
+@RestControllerAdvice
+public class QueryBudgetAdvice implements ResponseBodyAdvice<Object> {
+
+    private final QueryBudgetGuard guard;
+
+    @Autowired
+    public QueryBudgetAdvice(QueryBudgetGuard guard) {
+        this.guard = guard;
+    }
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return true;
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+                                  Class<? extends HttpMessageConverter<?>> selectedConverterType,
+                                  ServerHttpRequest request, ServerHttpResponse response) {
+        if (response instanceof ServletServerHttpResponse servletResponse) {
+            guard.check(returnType.getMethod(), servletResponse.getServletResponse());
+        }
+        return body;
+    }
+}
@@ -0,0 +1,43 @@
+package ru.yandex.practicum.filmorate.budget;
+
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.exception.InternalServerException;
+
+import java.lang.reflect.Method;
+
+// сверяет число SQL-запросов с бюджетом метода и отдает его в заголовке X-Query-Count;
+// повторный вызов для того же ответа ничего не делает
+@Slf4j
+@Component
+public class QueryBudgetGuard {
+    public static final String QUERY_COUNT_HEADER = "X-Query-Count";
+
+    private final boolean strict;
+
+    @Autowired
+    public QueryBudgetGuard(@Value("${filmorate.query-budget.strict:false}") boolean strict) {
+        this.strict = strict;
+    }
+
+    public void check(Method handler, HttpServletResponse response) {
+        int count = QueryCounter.current();
+        if (count < 0 || response.containsHeader(QUERY_COUNT_HEADER)) {
+            return;
+        }
+        response.setHeader(QUERY_COUNT_HEADER, String.valueOf(count));
+        QueryBudget budget = handler == null ? null : handler.getAnnotation(QueryBudget.class);
+        if (budget == null || count <= budget.value()) {
+            return;
+        }
+        String message = String.format("%s.%s выполнил %d SQL-запросов при бюджете %d",
+                handler.getDeclaringClass().getSimpleName(), handler.getName(), count, budget.value());
+        if (strict) {
+            throw new InternalServerException(message);
+        }
+        log.warn(message);
+    }
+}
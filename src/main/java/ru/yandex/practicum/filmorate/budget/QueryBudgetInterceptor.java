@@ -0,0 +1,41 @@
+package ru.yandex.practicum.filmorate.budget;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.ModelAndView;
+
+@Component
+public class QueryBudgetInterceptor implements HandlerInterceptor {
+
+    private final QueryBudgetGuard guard;
+
+    @Autowired
+    public QueryBudgetInterceptor(QueryBudgetGuard guard) {
+        this.guard = guard;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        QueryCounter.start();
+        return true;
+    }
+
+    // сюда доходят обработчики без тела ответа, остальные проверены в QueryBudgetAdvice
+    @Override
+    public void postHandle(HttpServletRequest request, HttpServletResponse response, Object handler,
+                           ModelAndView modelAndView) {
+        if (handler instanceof HandlerMethod handlerMethod && !response.isCommitted()) {
+            guard.check(handlerMethod.getMethod(), response);
+        }
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        QueryCounter.clear();
+    }
+}
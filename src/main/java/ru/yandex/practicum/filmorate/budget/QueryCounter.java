@@ -0,0 +1,49 @@
+package ru.yandex.practicum.filmorate.budget;
+
+// счетчик SQL-запросов текущего HTTP-запроса, привязан к потоку; вне начатого подсчета increment ничего не делает
+public final class QueryCounter {
+
+    private static final ThreadLocal<int[]> COUNT = new ThreadLocal<>();
+
+    private QueryCounter() {
+    }
+
+    public static void start() {
+        COUNT.set(new int[1]);
+    }
+
+    // число запросов с начала подсчета, -1 если подсчет не начат
+    public static int current() {
+        int[] count = COUNT.get();
+        return count == null ? -1 : count[0];
+    }
+
+    public static void clear() {
+        COUNT.remove();
+    }
+
+    public static void increment() {
+        int[] count = COUNT.get();
+        if (count != null) {
+            count[0]++;
+        }
+    }
+
+    // сколько запросов выполнило действие; объемлющий подсчет, если он идет, тоже их учитывает
+    public static int count(Runnable action) {
+        int[] outer = COUNT.get();
+        start();
+        try {
+            action.run();
+            return current();
+        } finally {
+            int inner = current();
+            if (outer != null) {
+                outer[0] += inner;
+                COUNT.set(outer);
+            } else {
+                clear();
+            }
+        }
+    }
+}
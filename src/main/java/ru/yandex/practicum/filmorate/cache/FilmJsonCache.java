@@ -0,0 +1,114 @@
+package ru.yandex.practicum.filmorate.cache;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.dto.FilmDto;
+
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// готовый JSON фильмов для GET /films/{id} по версии фильма и справочников, вытеснение по суммарному размеру
+@Component
+public class FilmJsonCache {
+    public static final String METRIC_PREFIX = "filmorate.film-json-cache.";
+
+    private final ObjectMapper objectMapper;
+    private final long maxBytes;
+    // порядок обхода — от давно не читавшихся к недавним
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    @Autowired
+    public FilmJsonCache(ObjectMapper objectMapper, MeterRegistry registry,
+                         @Value("${filmorate.film-json-cache.max-bytes:33554432}") long maxBytes) {
+        this.objectMapper = objectMapper;
+        this.maxBytes = maxBytes;
+        hits = Counter.builder(METRIC_PREFIX + "requests").tag("result", "hit").register(registry);
+        misses = Counter.builder(METRIC_PREFIX + "requests").tag("result", "miss").register(registry);
+        evictions = Counter.builder(METRIC_PREFIX + "evictions").register(registry);
+        Gauge.builder(METRIC_PREFIX + "hit-ratio", this, FilmJsonCache::hitRatio).register(registry);
+        Gauge.builder(METRIC_PREFIX + "entries", this, FilmJsonCache::size).register(registry);
+        Gauge.builder(METRIC_PREFIX + "bytes", this, FilmJsonCache::bytes).baseUnit("bytes").register(registry);
+    }
+
+    // JSON фильма этой версии при этой версии справочников (в нем названия жанров и рейтинга) или null
+    public byte[] get(long filmId, long version, long referenceVersion) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(filmId);
+        }
+        if (entry == null || entry.version() != version || entry.referenceVersion() != referenceVersion) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.json();
+    }
+
+    // сериализует фильм и кладет под его версией; более новую версию, положенную другим запросом, не заменяет
+    public byte[] put(FilmDto film, long referenceVersion) {
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(film);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (json.length > maxBytes) {
+            return json;
+        }
+        synchronized (this) {
+            Entry old = entries.get(film.getId());
+            if (old != null && old.version() > film.getVersion()) {
+                return json;
+            }
+            entries.put(film.getId(), new Entry(film.getVersion(), referenceVersion, json));
+            bytes += json.length - (old == null ? 0 : old.json().length);
+            evict();
+        }
+        return json;
+    }
+
+    public synchronized void invalidate(long filmId) {
+        Entry old = entries.remove(filmId);
+        if (old != null) {
+            bytes -= old.json().length;
+        }
+    }
+
+    public double hitRatio() {
+        double requests = hits.count() + misses.count();
+        return requests == 0 ? 0 : hits.count() / requests;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Long, Entry>> eldest = entries.entrySet().iterator();
+        while (bytes > maxBytes) {
+            bytes -= eldest.next().getValue().json().length;
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    private record Entry(long version, long referenceVersion, byte[] json) {
+    }
+}
@@ -0,0 +1,98 @@
+package ru.yandex.practicum.filmorate.cache;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Rating;
+import ru.yandex.practicum.filmorate.storage.GenreStorage;
+import ru.yandex.practicum.filmorate.storage.RatingStorage;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+// справочники жанров и MPA в памяти: читаются при старте и по запросу администратора, подменяются целиком;
+// версия снимка — общий ETag справочников, меняется, только если данные изменились
+@Slf4j
+@Component
+public class ReferenceDataCache {
+
+    private final GenreStorage genreStorage;
+    private final RatingStorage ratingStorage;
+    private volatile Snapshot snapshot;
+
+    @Autowired
+    public ReferenceDataCache(GenreStorage genreStorage, RatingStorage ratingStorage) {
+        this.genreStorage = genreStorage;
+        this.ratingStorage = ratingStorage;
+        refresh();
+    }
+
+    public synchronized void refresh() {
+        Genre[] genresById = indexById(genreStorage.findAll(), Genre::getId, Genre[]::new);
+        Rating[] ratingsById = indexById(ratingStorage.findAll(), Rating::getId, Rating[]::new);
+        List<Genre> genres = compact(genresById);
+        List<Rating> ratings = compact(ratingsById);
+        long version = System.currentTimeMillis();
+        if (snapshot != null) {
+            boolean unchanged = snapshot.genres().equals(genres) && snapshot.ratings().equals(ratings);
+            version = unchanged ? snapshot.version() : Math.max(version, snapshot.version() + 1);
+        }
+        snapshot = new Snapshot(genresById, genres, ratingsById, ratings, version);
+        log.info("Справочники загружены: жанров {}, рейтингов {}",
+                snapshot.genres().size(), snapshot.ratings().size());
+    }
+
+    public long getVersion() {
+        return snapshot.version();
+    }
+
+    public Collection<Genre> getGenres() {
+        return snapshot.genres();
+    }
+
+    // возвращает null, если жанра нет
+    public Genre getGenre(Integer id) {
+        return find(snapshot.genresById(), id);
+    }
+
+    public Collection<Rating> getRatings() {
+        return snapshot.ratings();
+    }
+
+    // возвращает null, если рейтинга нет
+    public Rating getRating(Integer id) {
+        return find(snapshot.ratingsById(), id);
+    }
+
+    private static <E> E find(E[] byId, Integer id) {
+        if (id == null || id < 0 || id >= byId.length) {
+            return null;
+        }
+        return byId[id];
+    }
+
+    private static <E> E[] indexById(Collection<E> items, Function<E, Integer> idOf, IntFunction<E[]> newArray) {
+        int maxId = items.stream()
+                .mapToInt(idOf::apply)
+                .max()
+                .orElse(0);
+        E[] byId = newArray.apply(maxId + 1);
+        items.forEach(item -> byId[idOf.apply(item)] = item);
+        return byId;
+    }
+
+    private static <E> List<E> compact(E[] byId) {
+        return Arrays.stream(byId)
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
+    private record Snapshot(Genre[] genresById, List<Genre> genres, Rating[] ratingsById, List<Rating> ratings,
+                            long version) {
+    }
+}
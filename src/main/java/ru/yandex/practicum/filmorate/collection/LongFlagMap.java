@@ -0,0 +1,156 @@
+package ru.yandex.practicum.filmorate.collection;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.StringJoiner;
+
+// отображение положительных long в признак без упаковки: признаки — биты в отдельном массиве
+public class LongFlagMap extends LongHashTable {
+
+    private static final long[] NO_FLAGS = new long[0];
+
+    private long[] flags = NO_FLAGS;
+
+    // записывает признак ключа; возвращает true, если ключа еще не было
+    public synchronized boolean put(long key, boolean flag) {
+        int index = keys.length > 0 ? slot(key) : -1;
+        boolean added = index < 0;
+        if (added) {
+            index = insert(key);
+        }
+        setFlag(index, flag);
+        return added;
+    }
+
+    // признак ключа; для отсутствующего ключа false
+    public synchronized boolean isFlagged(long key) {
+        if (keys.length == 0) {
+            return false;
+        }
+        int index = slot(key);
+        return index >= 0 && flag(index);
+    }
+
+    // возвращает true, если ключ был и удален
+    public synchronized boolean remove(long key) {
+        if (keys.length == 0) {
+            return false;
+        }
+        int index = slot(key);
+        if (index < 0) {
+            return false;
+        }
+        removeAt(index);
+        return true;
+    }
+
+    // копия в виде обычного Map; в JSON отображение записывается объектом, как записывался Map<Long, Boolean>
+    @JsonValue
+    public synchronized Map<Long, Boolean> toMap() {
+        Map<Long, Boolean> map = new LinkedHashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                map.put(keys[i], flag(i));
+            }
+        }
+        return map;
+    }
+
+    // обходит пары ключ-признак без создания Map
+    public synchronized void forEach(FlagConsumer action) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                action.accept(keys[i], flag(i));
+            }
+        }
+    }
+
+    @Override
+    protected void moveValue(int from, int to) {
+        setFlag(to, flag(from));
+    }
+
+    @Override
+    protected void resizeValues(int capacity, int[] newSlots) {
+        long[] oldFlags = flags;
+        flags = new long[(capacity + 63) >>> 6];
+        for (int i = 0; i < newSlots.length; i++) {
+            if (newSlots[i] >= 0 && (oldFlags[i >>> 6] & (1L << i)) != 0) {
+                flags[newSlots[i] >>> 6] |= 1L << newSlots[i];
+            }
+        }
+    }
+
+    private boolean flag(int index) {
+        return (flags[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private void setFlag(int index, boolean flag) {
+        if (flag) {
+            flags[index >>> 6] |= 1L << index;
+        } else {
+            flags[index >>> 6] &= ~(1L << index);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof LongFlagMap other)) {
+            return false;
+        }
+        long[] otherKeys;
+        boolean[] otherFlags;
+        // снимок другого отображения берется отдельно, чтобы не держать две блокировки сразу
+        synchronized (other) {
+            otherKeys = other.toArray();
+            otherFlags = new boolean[otherKeys.length];
+            for (int i = 0; i < otherKeys.length; i++) {
+                otherFlags[i] = other.isFlagged(otherKeys[i]);
+            }
+        }
+        synchronized (this) {
+            if (otherKeys.length != size()) {
+                return false;
+            }
+            for (int i = 0; i < otherKeys.length; i++) {
+                int index = slot(otherKeys[i]);
+                if (index < 0 || flag(index) != otherFlags[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public synchronized int hashCode() {
+        int hash = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                hash += Long.hashCode(keys[i]) * 31 + (flag(i) ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringJoiner joiner = new StringJoiner(", ", "{", "}");
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                joiner.add(keys[i] + "=" + flag(i));
+            }
+        }
+        return joiner.toString();
+    }
+
+    @FunctionalInterface
+    public interface FlagConsumer {
+        void accept(long key, boolean flag);
+    }
+}
@@ -0,0 +1,126 @@
+package ru.yandex.practicum.filmorate.collection;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+// основа хеш-таблиц с ключами long: линейное пробирование без «надгробий», ключ 0 — пустая ячейка;
+// операции синхронизированы на самой коллекции
+abstract class LongHashTable {
+
+    private static final long[] NO_KEYS = new long[0];
+    private static final int MIN_CAPACITY = 4;
+
+    protected long[] keys = NO_KEYS;
+    private int size;
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    public synchronized boolean contains(long key) {
+        return size > 0 && slot(key) >= 0;
+    }
+
+    // ключи в порядке таблицы; массив новый, его можно менять и сортировать
+    public synchronized long[] toArray() {
+        long[] result = new long[size];
+        int index = 0;
+        for (long key : keys) {
+            if (key != 0) {
+                result[index++] = key;
+            }
+        }
+        return result;
+    }
+
+    public synchronized void forEach(LongConsumer action) {
+        for (long key : keys) {
+            if (key != 0) {
+                action.accept(key);
+            }
+        }
+    }
+
+    // номер ячейки с ключом или -(номер пустой ячейки, куда его можно вставить) - 1
+    protected int slot(long key) {
+        if (key == 0) {
+            throw new IllegalArgumentException("Ключ 0 зарезервирован под пустую ячейку");
+        }
+        int mask = keys.length - 1;
+        int index = hash(key) & mask;
+        while (keys[index] != 0) {
+            if (keys[index] == key) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -index - 1;
+    }
+
+    // вставляет отсутствующий ключ и возвращает его ячейку
+    protected int insert(long key) {
+        if (keys.length == 0 || (size + 1) * 4L > keys.length * 3L) {
+            resize(Math.max(MIN_CAPACITY, keys.length * 2));
+        }
+        int index = -slot(key) - 1;
+        keys[index] = key;
+        size++;
+        return index;
+    }
+
+    protected void removeAt(int index) {
+        int mask = keys.length - 1;
+        int gap = index;
+        int next = (gap + 1) & mask;
+        while (keys[next] != 0) {
+            int home = hash(keys[next]) & mask;
+            // ключ можно перенести в пустую ячейку, если она лежит на пути от его исходной ячейки до текущей
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                moveValue(next, gap);
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[gap] = 0;
+        size--;
+    }
+
+    // значения хранятся в наследниках в массивах той же длины, что и keys
+    protected void moveValue(int from, int to) {
+    }
+
+    // newSlots[i] — новая ячейка ключа из старой ячейки i или -1, если она была пуста
+    protected void resizeValues(int capacity, int[] newSlots) {
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        keys = new long[capacity];
+        // новая ячейка каждого ключа по его старой ячейке, -1 для пустых
+        int[] newSlots = new int[oldKeys.length];
+        Arrays.fill(newSlots, -1);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int index = -slot(oldKeys[i]) - 1;
+                keys[index] = oldKeys[i];
+                newSlots[i] = index;
+            }
+        }
+        resizeValues(capacity, newSlots);
+    }
+
+    private static int hash(long key) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return Arrays.toString(toArray());
+    }
+}
@@ -0,0 +1,60 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import ru.yandex.practicum.filmorate.cache.ReferenceDataCache;
+import ru.yandex.practicum.filmorate.dto.SqlQueryStatsDto;
+import ru.yandex.practicum.filmorate.metrics.SqlMetrics;
+import ru.yandex.practicum.filmorate.service.LikeCountReconciliationJob;
+import ru.yandex.practicum.filmorate.service.UserService;
+
+import java.util.Collection;
+
+@Slf4j
+@RestController
+@RequestMapping("/admin")
+public class AdminController {
+
+    private final ReferenceDataCache referenceDataCache;
+    private final LikeCountReconciliationJob likeCountReconciliationJob;
+    private final SqlMetrics sqlMetrics;
+    private final UserService userService;
+
+    @Autowired
+    public AdminController(ReferenceDataCache referenceDataCache,
+                           LikeCountReconciliationJob likeCountReconciliationJob,
+                           SqlMetrics sqlMetrics,
+                           UserService userService) {
+        this.referenceDataCache = referenceDataCache;
+        this.likeCountReconciliationJob = likeCountReconciliationJob;
+        this.sqlMetrics = sqlMetrics;
+        this.userService = userService;
+    }
+
+    @PostMapping("/reference-data/refresh")
+    public void refreshReferenceData() {
+        log.info("Перезагрузка справочников жанров и рейтингов");
+        referenceDataCache.refresh();
+    }
+
+    @PostMapping("/likes/reconcile")
+    public int reconcileLikeCounts() {
+        log.info("Сверка счетчиков лайков");
+        return likeCountReconciliationJob.reconcile();
+    }
+
+    @PostMapping("/friends/rebuild")
+    public void rebuildFriendGraph() {
+        log.info("Перестроение графа дружбы");
+        userService.rebuildFriendGraph();
+    }
+
+    @GetMapping("/metrics/sql")
+    public Collection<SqlQueryStatsDto> getSqlMetrics() {
+        return sqlMetrics.report();
+    }
+}
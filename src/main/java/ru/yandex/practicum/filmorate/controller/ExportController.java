@@ -0,0 +1,63 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.yandex.practicum.filmorate.service.FilmService;
+import ru.yandex.practicum.filmorate.service.UserService;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+// полная выгрузка каталога: ответ пишется в поток по мере чтения строк из базы
+@Slf4j
+@RestController
+public class ExportController {
+
+    private final FilmService filmService;
+    private final UserService userService;
+    private final ObjectMapper objectMapper;
+
+    @Autowired
+    public ExportController(FilmService filmService, UserService userService, ObjectMapper objectMapper) {
+        this.filmService = filmService;
+        this.userService = userService;
+        this.objectMapper = objectMapper;
+    }
+
+    @GetMapping("/films/export")
+    public ResponseEntity<StreamingResponseBody> exportFilms() {
+        return jsonArray(filmService::exportAll);
+    }
+
+    @GetMapping("/users/export")
+    public ResponseEntity<StreamingResponseBody> exportUsers() {
+        return jsonArray(userService::exportAll);
+    }
+
+    private <T> ResponseEntity<StreamingResponseBody> jsonArray(Consumer<Consumer<T>> source) {
+        StreamingResponseBody body = out -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+                generator.writeStartArray();
+                source.accept(item -> {
+                    try {
+                        generator.writeObject(item);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                generator.writeEndArray();
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(body);
+    }
+}
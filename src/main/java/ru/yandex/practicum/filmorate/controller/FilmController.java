@@ -3,14 +3,24 @@ package ru.yandex.practicum.filmorate.controller;
 import jakarta.validation.Valid;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import ru.yandex.practicum.filmorate.budget.QueryBudget;
+import ru.yandex.practicum.filmorate.cache.FilmJsonCache;
 import ru.yandex.practicum.filmorate.dto.FilmDto;
+import ru.yandex.practicum.filmorate.dto.LikeDto;
 import ru.yandex.practicum.filmorate.dto.NewFilmRequest;
+import ru.yandex.practicum.filmorate.dto.PageDto;
 import ru.yandex.practicum.filmorate.dto.UpdateFilmRequest;
 import ru.yandex.practicum.filmorate.exception.ValidationException;
 import ru.yandex.practicum.filmorate.service.FilmService;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 
 
 @Slf4j
@@ -18,48 +28,119 @@ import java.util.Collection;
 @RequestMapping("/films")
 public class FilmController {
 
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int MAX_LIKES_BATCH_SIZE = 10_000;
+
     private final FilmService filmService;
+    private final FilmJsonCache filmJsonCache;
 
     @Autowired
-    public FilmController(FilmService filmService) {
+    public FilmController(FilmService filmService, FilmJsonCache filmJsonCache) {
         this.filmService = filmService;
+        this.filmJsonCache = filmJsonCache;
     }
 
+    // без бюджета: жанры догружаются пачками, число запросов растет с числом фильмов
     @GetMapping
     public Collection<FilmDto> findAll() {
         return filmService.findAll();
     }
 
+    // постраничная выдача по курсору: ?after=<id последнего полученного>&limit=N
+    @GetMapping(params = "limit")
+    @QueryBudget(3)
+    public PageDto<FilmDto> findPage(@RequestParam(defaultValue = "0") long after, @RequestParam int limit) {
+        if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+            throw new ValidationException("Размер страницы должен быть от 1 до " + MAX_PAGE_SIZE);
+        }
+        return filmService.findPage(after, limit);
+    }
+
     @PostMapping
+    @QueryBudget(2)
     public FilmDto create(@Valid @RequestBody NewFilmRequest request) {
         return filmService.create(request);
     }
 
     @PutMapping
+    @QueryBudget(5)
     public FilmDto update(@Valid @RequestBody UpdateFilmRequest request) {
         return filmService.update(request);
     }
 
+    // сначала запрос версии по ключу: при совпадении с If-None-Match ответ 304, при готовом JSON этой версии
+    // в кэше он отдается как есть; иначе фильм читается обычными двумя запросами и попадает в кэш
     @GetMapping("/{id}")
-    public FilmDto findFilmById(@PathVariable long id) {
-       return filmService.findFilmById(id);
+    @QueryBudget(3)
+    public ResponseEntity<byte[]> findFilmById(@PathVariable long id, WebRequest request) {
+        Optional<Long> version = filmService.findFilmVersion(id);
+        long referenceVersion = filmService.getReferenceVersion();
+        byte[] json = null;
+        long filmVersion = 0;
+        if (version.isPresent()) {
+            String eTag = filmETag(id, version.get(), referenceVersion);
+            // checkNotModified выставляет ETag и в ответ 200, поэтому до чтения фильма вызывается только для 304
+            if (hasETag(request, eTag) && request.checkNotModified(eTag)) {
+                return null;
+            }
+            json = filmJsonCache.get(id, version.get(), referenceVersion);
+            filmVersion = version.get();
+        }
+        if (json == null) {
+            // фильм мог измениться после запроса версии: ETag берется по прочитанному
+            FilmDto film = filmService.findFilmById(id);
+            json = filmJsonCache.put(film, referenceVersion);
+            filmVersion = film.getVersion();
+        }
+        if (request.checkNotModified(filmETag(id, filmVersion, referenceVersion))) {
+            return null;
+        }
+        return filmJson(json);
     }
 
     @PutMapping("{id}/like/{userId}")
+    @QueryBudget(2)
     public void addLikeByUser(@PathVariable("id") long filmId, @PathVariable long userId) {
         filmService.addLikeByUser(filmId, userId);
     }
 
     @DeleteMapping("{id}/like/{userId}")
+    @QueryBudget(2)
     public void deleteLikeByUser(@PathVariable("id") long filmId, @PathVariable long userId) {
         filmService.deleteLikeByUser(filmId, userId);
     }
 
+    // пакетная загрузка лайков: статус каждого лайка в ответе, в том же порядке
+    // без бюджета: фильмы и пользователи ищутся частями, число запросов растет с размером пакета
+    @PostMapping("/likes:batch")
+    public List<LikeDto> addLikes(@RequestBody List<LikeDto> likes) {
+        if (likes.isEmpty() || likes.size() > MAX_LIKES_BATCH_SIZE) {
+            throw new ValidationException("Размер пакета должен быть от 1 до " + MAX_LIKES_BATCH_SIZE);
+        }
+        return filmService.addLikes(likes);
+    }
+
     @GetMapping("popular")
+    @QueryBudget(2)
     public Collection<FilmDto> getPopularFilms(@RequestParam(defaultValue = "10") int count) {
         if (count <= 0) {
             throw new ValidationException("Размер должен быть больше нуля");
         }
         return filmService.getPopularFilms(count);
     }
+
+    private static ResponseEntity<byte[]> filmJson(byte[] json) {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(json);
+    }
+
+    private static boolean hasETag(WebRequest request, String eTag) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        return ifNoneMatch != null && ifNoneMatch.contains("\"" + eTag + "\"");
+    }
+
+    private static String filmETag(long id, long version, long referenceVersion) {
+        return id + "-" + version + "-" + referenceVersion;
+    }
 }
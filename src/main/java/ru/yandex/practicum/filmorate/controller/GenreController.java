@@ -6,6 +6,7 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 import ru.yandex.practicum.filmorate.dto.GenreDto;
 import ru.yandex.practicum.filmorate.service.GenreService;
 
@@ -23,13 +24,24 @@ public class GenreController {
         this.genreService = genreService;
     }
 
+    // ETag — версия справочников: пока они не перечитаны с изменениями, повторный запрос получает 304
     @GetMapping
-    public Collection<GenreDto> findAll() {
+    public Collection<GenreDto> findAll(WebRequest request) {
+        if (request.checkNotModified(referenceETag())) {
+            return null;
+        }
         return genreService.findAll();
     }
 
     @GetMapping("/{id}")
-    public GenreDto findFilmById(@PathVariable int id) {
+    public GenreDto findFilmById(@PathVariable int id, WebRequest request) {
+        if (request.checkNotModified(referenceETag())) {
+            return null;
+        }
         return genreService.findById(id);
     }
+
+    private String referenceETag() {
+        return "reference-" + genreService.getVersion();
+    }
 }
@@ -6,6 +6,7 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 import ru.yandex.practicum.filmorate.dto.RatingDto;
 import ru.yandex.practicum.filmorate.service.RatingService;
 
@@ -23,13 +24,24 @@ public class RatingController {
         this.ratingService = ratingService;
     }
 
+    // ETag — версия справочников: пока они не перечитаны с изменениями, повторный запрос получает 304
     @GetMapping
-    public Collection<RatingDto> findAll() {
+    public Collection<RatingDto> findAll(WebRequest request) {
+        if (request.checkNotModified(referenceETag())) {
+            return null;
+        }
         return ratingService.findAll();
     }
 
     @GetMapping("/{id}")
-    public RatingDto findFilmById(@PathVariable int id) {
+    public RatingDto findFilmById(@PathVariable int id, WebRequest request) {
+        if (request.checkNotModified(referenceETag())) {
+            return null;
+        }
         return ratingService.findById(id);
     }
+
+    private String referenceETag() {
+        return "reference-" + ratingService.getVersion();
+    }
 }
@@ -0,0 +1,36 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+import ru.yandex.practicum.filmorate.budget.QueryBudget;
+import ru.yandex.practicum.filmorate.dto.FilmDto;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.service.FilmRecommendationService;
+
+import java.util.Collection;
+
+@Slf4j
+@RestController
+@RequestMapping("/users")
+public class RecommendationController {
+
+    private static final int MAX_RECOMMENDATIONS = 100;
+
+    private final FilmRecommendationService recommendationService;
+
+    @Autowired
+    public RecommendationController(FilmRecommendationService recommendationService) {
+        this.recommendationService = recommendationService;
+    }
+
+    // фильмы, похожие на лайкнутые пользователем; модель в памяти, из базы читаются только сами фильмы и жанры
+    @GetMapping("{id}/recommendations")
+    @QueryBudget(2)
+    public Collection<FilmDto> getRecommendations(@PathVariable long id, @RequestParam(defaultValue = "10") int limit) {
+        if (limit <= 0 || limit > MAX_RECOMMENDATIONS) {
+            throw new ValidationException("Количество рекомендаций должно быть от 1 до " + MAX_RECOMMENDATIONS);
+        }
+        return recommendationService.getRecommendations(id, limit);
+    }
+}
@@ -4,12 +4,17 @@ import jakarta.validation.Valid;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
+import ru.yandex.practicum.filmorate.budget.QueryBudget;
+import ru.yandex.practicum.filmorate.dto.FriendSuggestionDto;
 import ru.yandex.practicum.filmorate.dto.NewUserRequest;
+import ru.yandex.practicum.filmorate.dto.PageDto;
 import ru.yandex.practicum.filmorate.dto.UpdateUserRequest;
 import ru.yandex.practicum.filmorate.dto.UserDto;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
 import ru.yandex.practicum.filmorate.service.UserService;
 
 import java.util.Collection;
+import java.util.List;
 
 @Slf4j
 @RestController
@@ -17,6 +22,9 @@ import java.util.Collection;
 public class UserController {
 
 
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int MAX_SUGGESTIONS = 100;
+
     private final UserService userService;
 
     @Autowired
@@ -25,42 +33,71 @@ public class UserController {
     }
 
     @GetMapping
+    @QueryBudget(1)
     public Collection<UserDto> findAll() {
         return userService.findAll();
     }
 
+    // постраничная выдача по курсору: ?after=<id последнего полученного>&limit=N
+    @GetMapping(params = "limit")
+    @QueryBudget(1)
+    public PageDto<UserDto> findPage(@RequestParam(defaultValue = "0") long after, @RequestParam int limit) {
+        if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+            throw new ValidationException("Размер страницы должен быть от 1 до " + MAX_PAGE_SIZE);
+        }
+        return userService.findPage(after, limit);
+    }
+
     @PostMapping
+    @QueryBudget(1)
     public UserDto create(@Valid @RequestBody NewUserRequest request) {
         return userService.create(request);
     }
 
     @PutMapping
+    @QueryBudget(2)
     public UserDto update(@Valid @RequestBody UpdateUserRequest request) {
         return userService.update(request);
     }
 
     @GetMapping("/{id}")
+    @QueryBudget(1)
     public UserDto findUserById(@PathVariable long id) {
         return userService.findUserById(id);
     }
 
     @PutMapping("/{id}/friends/{friendId}")
+    @QueryBudget(1)
     public void addFriend(@PathVariable long id, @PathVariable long friendId) {
         userService.addFriend(id, friendId);
     }
 
     @DeleteMapping("{id}/friends/{friendId}")
+    @QueryBudget(2)
     public void deleteFriend(@PathVariable long id, @PathVariable long friendId) {
         userService.deleteFriend(id, friendId);
     }
 
     @GetMapping("{id}/friends")
+    @QueryBudget(2)
     public Collection<UserDto> getFriendsByUser(@PathVariable long id) {
         return userService.getFriendsByUser(id);
     }
 
     @GetMapping("{id}/friends/common/{otherId}")
+    @QueryBudget(1)
     public Collection<UserDto> getCommonFriends(@PathVariable long id, @PathVariable long otherId) {
         return userService.getCommonFriends(id, otherId);
     }
+
+    // кандидаты в друзья по числу общих друзей; считаются по графу в памяти, в базу не ходят
+    @GetMapping("{id}/friends/suggestions")
+    @QueryBudget(0)
+    public List<FriendSuggestionDto> getFriendSuggestions(@PathVariable long id,
+                                                          @RequestParam(defaultValue = "10") int limit) {
+        if (limit <= 0 || limit > MAX_SUGGESTIONS) {
+            throw new ValidationException("Количество рекомендаций должно быть от 1 до " + MAX_SUGGESTIONS);
+        }
+        return userService.getFriendSuggestions(id, limit);
+    }
 }
@@ -0,0 +1,333 @@
+package ru.yandex.practicum.filmorate.datagen;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.exception.InternalServerException;
+import ru.yandex.practicum.filmorate.service.FilmService;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.function.IntSupplier;
+
+// генератор больших наборов данных: лайки по закону Ципфа, дружба плотными группами, запись пакетами
+// запуск: java -jar filmorate.jar --spring.profiles.active=datagen --filmorate.datagen.users=...
+@Slf4j
+@Component
+@Profile("datagen")
+@EnableConfigurationProperties(DatasetProperties.class)
+public class DatasetGenerator implements CommandLineRunner {
+
+    private static final String INSERT_USER_QUERY
+            = "INSERT INTO users (login, email, name, birthday) VALUES (?, ?, ?, ?)";
+    private static final String INSERT_FILM_QUERY = """
+    INSERT INTO films (name, description, release_date, duration, rating_id)
+    VALUES (?, ?, ?, ?, ?)""";
+    private static final String INSERT_FILM_GENRE_QUERY = "INSERT INTO film_genres (film_id, genre_id) VALUES (?, ?)";
+    private static final String INSERT_LIKE_QUERY = "INSERT INTO likes (user_id, film_id) VALUES (?, ?)";
+    private static final String INSERT_FRIEND_QUERY
+            = "INSERT INTO user_friends (user_id, friend_id, confirmed) VALUES (?, ?, ?)";
+    private static final String UPDATE_LIKES_COUNT_QUERY = "UPDATE films SET likes_count = ?, version = version + 1 WHERE id = ?";
+    private static final String FIND_RATING_IDS_QUERY = "SELECT id FROM ratings ORDER BY id";
+    private static final String FIND_GENRE_IDS_QUERY = "SELECT id FROM genres ORDER BY id";
+    private static final String MAX_ID_QUERY = "SELECT COALESCE(MAX(id), 0) FROM %s";
+    private static final String ID_RANGE_QUERY = "SELECT MIN(id), MAX(id), COUNT(*) FROM %s WHERE id > ?";
+
+    private static final LocalDate MIN_DATE = LocalDate.of(1950, 1, 1);
+    private static final int DATE_RANGE_DAYS = 70 * 365;
+    private static final int MAX_GENRES_PER_FILM = 3;
+    // сколько раз повторять случайный выбор, прежде чем искать свободный вариант перебором
+    private static final int PICK_ATTEMPTS = 64;
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate transactionTemplate;
+    private final FilmService filmService;
+    private final DatasetProperties properties;
+
+    @Autowired
+    public DatasetGenerator(JdbcTemplate jdbc,
+                            PlatformTransactionManager transactionManager,
+                            FilmService filmService,
+                            DatasetProperties properties) {
+        this.jdbc = jdbc;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.filmService = filmService;
+        this.properties = properties;
+    }
+
+    @Override
+    public void run(String... args) {
+        generate();
+    }
+
+    public void generate() {
+        long started = System.currentTimeMillis();
+        SplittableRandom random = new SplittableRandom(properties.getSeed());
+        List<Integer> ratingIds = jdbc.queryForList(FIND_RATING_IDS_QUERY, Integer.class);
+        List<Integer> genreIds = jdbc.queryForList(FIND_GENRE_IDS_QUERY, Integer.class);
+        if (ratingIds.isEmpty() || genreIds.isEmpty()) {
+            throw new InternalServerException("Справочники рейтингов и жанров не заполнены");
+        }
+
+        long firstUserId = insertUsers(random);
+        long firstFilmId = insertFilms(random, ratingIds, genreIds);
+        long likes = insertLikes(random, firstUserId, firstFilmId);
+        long friendships = insertFriends(random, firstUserId);
+        // лайки записаны мимо FilmService, поэтому рейтинг популярности перестраивается целиком
+        filmService.rebuildPopularityIndex();
+        log.info("Сгенерировано пользователей: {}, фильмов: {}, лайков: {}, дружб: {} за {} мс",
+                properties.getUsers(), properties.getFilms(), likes, friendships,
+                System.currentTimeMillis() - started);
+    }
+
+    private long insertUsers(SplittableRandom random) {
+        long firstId = insertRows("users", INSERT_USER_QUERY, properties.getUsers(), (ps, row) -> {
+            ps.setString(1, "user" + row);
+            ps.setString(2, "user" + row + "@mail.ru");
+            ps.setString(3, "Пользователь " + row);
+            ps.setDate(4, randomDate(random));
+        });
+        log.info("Добавлено пользователей: {}", properties.getUsers());
+        return firstId;
+    }
+
+    private long insertFilms(SplittableRandom random, List<Integer> ratingIds, List<Integer> genreIds) {
+        long firstId = insertRows("films", INSERT_FILM_QUERY, properties.getFilms(), (ps, row) -> {
+            ps.setString(1, "Фильм " + row);
+            ps.setString(2, "Описание фильма " + row);
+            ps.setDate(3, randomDate(random));
+            ps.setInt(4, 60 + random.nextInt(120));
+            ps.setInt(5, ratingIds.get(random.nextInt(ratingIds.size())));
+        });
+
+        // у каждого фильма от одного до трех разных жанров
+        int maxGenres = Math.min(MAX_GENRES_PER_FILM, genreIds.size());
+        int[] genresCount = new int[properties.getFilms()];
+        long genreRows = 0;
+        for (int film = 0; film < genresCount.length; film++) {
+            genresCount[film] = 1 + random.nextInt(maxGenres);
+            genreRows += genresCount[film];
+        }
+        insertInBatches(INSERT_FILM_GENRE_QUERY, genreRows, new RowWriter() {
+            private int film = -1;
+            private int remaining;
+            private final Set<Integer> picked = new HashSet<>();
+
+            @Override
+            public void write(PreparedStatement ps, long row) throws SQLException {
+                if (remaining == 0) {
+                    film++;
+                    remaining = genresCount[film];
+                    picked.clear();
+                }
+                int genre = pick(picked, () -> random.nextInt(genreIds.size()), 0, genreIds.size());
+                remaining--;
+                ps.setLong(1, firstId + film);
+                ps.setInt(2, genreIds.get(genre));
+            }
+        });
+        log.info("Добавлено фильмов: {}, жанров фильмов: {}", properties.getFilms(), genreRows);
+        return firstId;
+    }
+
+    private long insertLikes(SplittableRandom random, long firstUserId, long firstFilmId) {
+        int users = properties.getUsers();
+        int films = properties.getFilms();
+        if (users == 0 || films == 0) {
+            return 0;
+        }
+        // ранг популярности по Ципфу соответствует случайному фильму, чтобы лидеры не шли подряд по id
+        int[] filmByRank = shuffledRange(random, films);
+        ZipfSampler sampler = new ZipfSampler(films, properties.getLikesSkew());
+        // лайки делятся между пользователями поровну, у пользователя не бывает больше лайков, чем фильмов
+        long perUser = properties.getLikes() / users;
+        long extra = properties.getLikes() % users;
+        long total = 0;
+        for (int user = 0; user < users; user++) {
+            total += likesOf(user, perUser, extra, films);
+        }
+        int[] likesCount = new int[films];
+        insertInBatches(INSERT_LIKE_QUERY, total, new RowWriter() {
+            private int user = -1;
+            private int remaining;
+            private final Set<Integer> picked = new HashSet<>();
+
+            @Override
+            public void write(PreparedStatement ps, long row) throws SQLException {
+                while (remaining == 0) {
+                    user++;
+                    remaining = likesOf(user, perUser, extra, films);
+                    picked.clear();
+                }
+                int film = filmByRank[pick(picked, () -> sampler.sample(random), 0, films)];
+                remaining--;
+                likesCount[film]++;
+                ps.setLong(1, firstUserId + user);
+                ps.setLong(2, firstFilmId + film);
+            }
+        });
+
+        long likedFilms = 0;
+        for (int count : likesCount) {
+            if (count > 0) {
+                likedFilms++;
+            }
+        }
+        insertInBatches(UPDATE_LIKES_COUNT_QUERY, likedFilms, new RowWriter() {
+            private int film = -1;
+
+            @Override
+            public void write(PreparedStatement ps, long row) throws SQLException {
+                do {
+                    film++;
+                } while (likesCount[film] == 0);
+                ps.setInt(1, likesCount[film]);
+                ps.setLong(2, firstFilmId + film);
+            }
+        });
+        log.info("Добавлено лайков: {}", total);
+        return total;
+    }
+
+    private static int likesOf(int user, long perUser, long extra, int films) {
+        return (int) Math.min(perUser + (user < extra ? 1 : 0), films);
+    }
+
+    /*
+     * Каждая пара друзей выбирается один раз пользователем с меньшим id, поэтому повторов нет
+     * без общего множества пар на весь граф. Как и UserDbStorage.addFriend, пара дает две строки:
+     * прямую подтвержденную и обратную неподтвержденную. Каждый пользователь выбирает половину
+     * от friendsPerUser, вторую половину в среднем дают выборы других пользователей.
+     */
+    private long insertFriends(SplittableRandom random, long firstUserId) {
+        int users = properties.getUsers();
+        int picksPerUser = properties.getFriendsPerUser() / 2;
+        int clusterSize = Math.max(properties.getClusterSize(), 1);
+        long pairs = 0;
+        for (int user = 0; user < users; user++) {
+            pairs += Math.min(picksPerUser, users - 1 - user);
+        }
+        insertInBatches(INSERT_FRIEND_QUERY, pairs * 2, new RowWriter() {
+            private int user = -1;
+            private int remaining;
+            private int friend;
+            private final Set<Integer> picked = new HashSet<>();
+
+            @Override
+            public void write(PreparedStatement ps, long row) throws SQLException {
+                if (row % 2 == 1) {
+                    ps.setLong(1, firstUserId + friend);
+                    ps.setLong(2, firstUserId + user);
+                    ps.setBoolean(3, false);
+                    return;
+                }
+                while (remaining == 0) {
+                    user++;
+                    remaining = Math.min(picksPerUser, users - 1 - user);
+                    picked.clear();
+                }
+                int clusterEnd = Math.min((user / clusterSize + 1) * clusterSize, users);
+                friend = pick(picked, () -> {
+                    if (clusterEnd - user > 1 && random.nextDouble() < properties.getClusterShare()) {
+                        return user + 1 + random.nextInt(clusterEnd - user - 1);
+                    }
+                    return user + 1 + random.nextInt(users - user - 1);
+                }, user + 1, users);
+                remaining--;
+                ps.setLong(1, firstUserId + user);
+                ps.setLong(2, firstUserId + friend);
+                ps.setBoolean(3, true);
+            }
+        });
+        log.info("Добавлено пар друзей: {}", pairs);
+        return pairs;
+    }
+
+    // случайный вариант, которого еще нет в picked; если случайно не выпадает, берется первый свободный
+    private static int pick(Set<Integer> picked, IntSupplier candidate, int from, int to) {
+        for (int attempt = 0; attempt < PICK_ATTEMPTS; attempt++) {
+            int value = candidate.getAsInt();
+            if (picked.add(value)) {
+                return value;
+            }
+        }
+        for (int value = from; value < to; value++) {
+            if (picked.add(value)) {
+                return value;
+            }
+        }
+        throw new InternalServerException("Не осталось свободных вариантов в диапазоне " + from + ".." + to);
+    }
+
+    private static int[] shuffledRange(SplittableRandom random, int size) {
+        int[] values = new int[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = i;
+        }
+        for (int i = size - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+        }
+        return values;
+    }
+
+    private static Date randomDate(SplittableRandom random) {
+        return Date.valueOf(MIN_DATE.plusDays(random.nextInt(DATE_RANGE_DAYS)));
+    }
+
+    // вставляет строки и возвращает id первой из них; id новых строк должны идти подряд
+    private long insertRows(String table, String query, long rows, RowWriter writer) {
+        long maxId = jdbc.queryForObject(String.format(MAX_ID_QUERY, table), Long.class);
+        if (rows == 0) {
+            return maxId + 1;
+        }
+        insertInBatches(query, rows, writer);
+        long[] range = jdbc.queryForObject(String.format(ID_RANGE_QUERY, table),
+                (rs, rowNum) -> new long[]{rs.getLong(1), rs.getLong(2), rs.getLong(3)}, maxId);
+        if (range[2] != rows || range[1] - range[0] + 1 != rows) {
+            throw new InternalServerException("Идентификаторы новых строк в " + table + " идут не подряд");
+        }
+        return range[0];
+    }
+
+    private void insertInBatches(String query, long rows, RowWriter writer) {
+        int batchSize = properties.getBatchSize();
+        for (long from = 0; from < rows; from += batchSize) {
+            long offset = from;
+            int size = (int) Math.min(batchSize, rows - from);
+            transactionTemplate.executeWithoutResult(status -> jdbc.batchUpdate(query,
+                    new BatchPreparedStatementSetter() {
+                        @Override
+                        public void setValues(PreparedStatement ps, int i) throws SQLException {
+                            writer.write(ps, offset + i);
+                        }
+
+                        @Override
+                        public int getBatchSize() {
+                            return size;
+                        }
+                    }));
+        }
+    }
+
+    // строки генерируются по порядку: setValues вызывается ровно один раз для каждой строки
+    @FunctionalInterface
+    private interface RowWriter {
+        void write(PreparedStatement ps, long row) throws SQLException;
+    }
+}
@@ -0,0 +1,23 @@
+package ru.yandex.practicum.filmorate.datagen;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+// параметры генератора тестовых данных, свойства filmorate.datagen.*
+@Data
+@ConfigurationProperties(prefix = "filmorate.datagen")
+public class DatasetProperties {
+    private int users = 1_000_000;
+    private int films = 100_000;
+    private long likes = 10_000_000;
+    // показатель закона Ципфа для лайков: 0 — равномерно, 1 и выше — горстка фильмов собирает большинство лайков
+    private double likesSkew = 1.0;
+    // среднее число друзей у пользователя
+    private int friendsPerUser = 20;
+    // пользователи разбиты на группы подряд идущих id, внутри группы дружат чаще
+    private int clusterSize = 200;
+    // доля дружб внутри своей группы
+    private double clusterShare = 0.8;
+    private int batchSize = 10_000;
+    private long seed = 42;
+}
@@ -0,0 +1,27 @@
+package ru.yandex.practicum.filmorate.datagen;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+// выборка по закону Ципфа: элемент с рангом k (с нуля) выпадает с вероятностью ~ 1 / (k + 1)^s
+class ZipfSampler {
+    private final double[] cumulative;
+
+    ZipfSampler(int size, double exponent) {
+        cumulative = new double[size];
+        double sum = 0;
+        for (int rank = 0; rank < size; rank++) {
+            sum += 1 / Math.pow(rank + 1, exponent);
+            cumulative[rank] = sum;
+        }
+    }
+
+    int sample(SplittableRandom random) {
+        double point = random.nextDouble() * cumulative[cumulative.length - 1];
+        int rank = Arrays.binarySearch(cumulative, point);
+        if (rank < 0) {
+            rank = -rank - 1;
+        }
+        return Math.min(rank, cumulative.length - 1);
+    }
+}
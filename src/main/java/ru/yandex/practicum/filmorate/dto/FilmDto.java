@@ -1,5 +1,6 @@
 package ru.yandex.practicum.filmorate.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Data;
 import ru.yandex.practicum.filmorate.model.Genre;
@@ -18,4 +19,7 @@ public class FilmDto {
     Integer duration;
     Rating mpa;
     Set<Genre> genres;
+    // отдается в заголовке ETag, а не в теле
+    @JsonIgnore
+    Long version;
 }
@@ -0,0 +1,11 @@
+package ru.yandex.practicum.filmorate.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class FriendSuggestionDto {
+    Long userId;
+    int mutualFriends;
+}
@@ -0,0 +1,14 @@
+package ru.yandex.practicum.filmorate.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+import ru.yandex.practicum.filmorate.model.LikeStatus;
+
+@Data
+public class LikeDto {
+    Long filmId;
+    Long userId;
+    // заполняется в ответе на пакетную загрузку
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    LikeStatus status;
+}
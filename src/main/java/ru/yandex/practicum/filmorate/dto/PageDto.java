@@ -0,0 +1,14 @@
+package ru.yandex.practicum.filmorate.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.Collection;
+
+@Data
+@AllArgsConstructor
+public class PageDto<T> {
+    Collection<T> items;
+    // id последнего элемента страницы для параметра after, null на последней странице
+    Long nextCursor;
+}
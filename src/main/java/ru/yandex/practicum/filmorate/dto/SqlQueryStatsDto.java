@@ -0,0 +1,20 @@
+package ru.yandex.practicum.filmorate.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class SqlQueryStatsDto {
+    // имя константы с текстом запроса, например FilmDbStorage.FIND_POPULAR_QUERY
+    String query;
+    String repository;
+    long count;
+    // строк прочитано или изменено за все вызовы
+    long rows;
+    double meanMs;
+    double p50Ms;
+    double p99Ms;
+    double p999Ms;
+    double maxMs;
+}
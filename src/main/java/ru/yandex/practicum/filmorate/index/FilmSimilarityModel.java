@@ -0,0 +1,227 @@
+package ru.yandex.practicum.filmorate.index;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// неизменяемая item-item модель похожести фильмов по лайкам (косинусная мера) в примитивных массивах
+public final class FilmSimilarityModel {
+
+    public static final FilmSimilarityModel EMPTY = new FilmSimilarityModel(new long[0], new int[1], new int[0],
+            new float[0], new long[0], new int[1], new int[0]);
+
+    // сколько фильмов обрабатывает одна задача fork/join без дальнейшего деления
+    private static final int FILMS_PER_TASK = 256;
+
+    private final long[] filmIds;
+    private final int[] neighbourOffsets;
+    private final int[] neighbours;
+    private final float[] similarities;
+    private final long[] userIds;
+    private final int[] likeOffsets;
+    private final int[] likedFilms;
+
+    private FilmSimilarityModel(long[] filmIds, int[] neighbourOffsets, int[] neighbours, float[] similarities,
+                                long[] userIds, int[] likeOffsets, int[] likedFilms) {
+        this.filmIds = filmIds;
+        this.neighbourOffsets = neighbourOffsets;
+        this.neighbours = neighbours;
+        this.similarities = similarities;
+        this.userIds = userIds;
+        this.likeOffsets = likeOffsets;
+        this.likedFilms = likedFilms;
+    }
+
+    // likedFilms: userId -> отсортированные id лайкнутых фильмов; соседи фильмов считаются параллельно в pool
+    public static FilmSimilarityModel build(Map<Long, long[]> likedFilms, int neighbours, ForkJoinPool pool) {
+        long[] userIds = likedFilms.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+        long[] filmIds = likedFilms.values().stream()
+                .flatMapToLong(Arrays::stream)
+                .distinct()
+                .sorted()
+                .toArray();
+        if (filmIds.length == 0) {
+            return EMPTY;
+        }
+
+        // лайки пользователей: номера фильмов вместо id, по возрастанию, как и id
+        int[] likeOffsets = new int[userIds.length + 1];
+        for (int u = 0; u < userIds.length; u++) {
+            likeOffsets[u + 1] = likeOffsets[u] + likedFilms.get(userIds[u]).length;
+        }
+        int[] userFilms = new int[likeOffsets[userIds.length]];
+        int[] filmLikes = new int[filmIds.length];
+        for (int u = 0; u < userIds.length; u++) {
+            long[] ids = likedFilms.get(userIds[u]);
+            for (int k = 0; k < ids.length; k++) {
+                int film = Arrays.binarySearch(filmIds, ids[k]);
+                userFilms[likeOffsets[u] + k] = film;
+                filmLikes[film]++;
+            }
+        }
+
+        // обратный индекс: номера пользователей, лайкнувших фильм
+        int[] fanOffsets = new int[filmIds.length + 1];
+        for (int f = 0; f < filmIds.length; f++) {
+            fanOffsets[f + 1] = fanOffsets[f] + filmLikes[f];
+        }
+        int[] fans = new int[userFilms.length];
+        int[] fill = Arrays.copyOf(fanOffsets, filmIds.length);
+        for (int u = 0; u < userIds.length; u++) {
+            for (int k = likeOffsets[u]; k < likeOffsets[u + 1]; k++) {
+                fans[fill[userFilms[k]]++] = u;
+            }
+        }
+
+        int[][] neighbourLists = new int[filmIds.length][];
+        float[][] similarityLists = new float[filmIds.length][];
+        pool.invoke(new NeighbourTask(0, filmIds.length, neighbours, filmLikes, fanOffsets, fans,
+                likeOffsets, userFilms, neighbourLists, similarityLists));
+
+        int[] neighbourOffsets = new int[filmIds.length + 1];
+        for (int f = 0; f < filmIds.length; f++) {
+            neighbourOffsets[f + 1] = neighbourOffsets[f] + neighbourLists[f].length;
+        }
+        int[] flatNeighbours = new int[neighbourOffsets[filmIds.length]];
+        float[] flatSimilarities = new float[flatNeighbours.length];
+        for (int f = 0; f < filmIds.length; f++) {
+            System.arraycopy(neighbourLists[f], 0, flatNeighbours, neighbourOffsets[f], neighbourLists[f].length);
+            System.arraycopy(similarityLists[f], 0, flatSimilarities, neighbourOffsets[f], similarityLists[f].length);
+        }
+        return new FilmSimilarityModel(filmIds, neighbourOffsets, flatNeighbours, flatSimilarities,
+                userIds, likeOffsets, userFilms);
+    }
+
+    public int filmCount() {
+        return filmIds.length;
+    }
+
+    public int userCount() {
+        return userIds.length;
+    }
+
+    // id похожих фильмов по убыванию похожести
+    public long[] neighbours(long filmId) {
+        int film = Arrays.binarySearch(filmIds, filmId);
+        if (film < 0) {
+            return new long[0];
+        }
+        return Arrays.stream(neighbours, neighbourOffsets[film], neighbourOffsets[film + 1])
+                .mapToLong(neighbour -> filmIds[neighbour])
+                .toArray();
+    }
+
+    // не больше limit id фильмов по убыванию суммарной похожести, при равенстве по возрастанию id
+    public List<Long> recommend(long userId, int limit) {
+        int user = Arrays.binarySearch(userIds, userId);
+        if (user < 0) {
+            return List.of();
+        }
+        int from = likeOffsets[user];
+        int to = likeOffsets[user + 1];
+        Map<Integer, Float> scores = new HashMap<>();
+        for (int k = from; k < to; k++) {
+            int film = likedFilms[k];
+            for (int n = neighbourOffsets[film]; n < neighbourOffsets[film + 1]; n++) {
+                if (Arrays.binarySearch(likedFilms, from, to, neighbours[n]) < 0) {
+                    scores.merge(neighbours[n], similarities[n], Float::sum);
+                }
+            }
+        }
+        // номера фильмов упорядочены так же, как их id
+        return scores.entrySet()
+                .stream()
+                .sorted(Map.Entry.<Integer, Float>comparingByValue().reversed()
+                        .thenComparing(Map.Entry.comparingByKey()))
+                .limit(limit)
+                .map(entry -> filmIds[entry.getKey()])
+                .toList();
+    }
+
+    // соседи фильмов с номерами [from, to); массив счетчиков заводится один раз на задачу
+    private static final class NeighbourTask extends RecursiveAction {
+        private final int from;
+        private final int to;
+        private final int neighbours;
+        private final int[] filmLikes;
+        private final int[] fanOffsets;
+        private final int[] fans;
+        private final int[] likeOffsets;
+        private final int[] userFilms;
+        private final int[][] neighbourLists;
+        private final float[][] similarityLists;
+
+        NeighbourTask(int from, int to, int neighbours, int[] filmLikes, int[] fanOffsets, int[] fans,
+                      int[] likeOffsets, int[] userFilms, int[][] neighbourLists, float[][] similarityLists) {
+            this.from = from;
+            this.to = to;
+            this.neighbours = neighbours;
+            this.filmLikes = filmLikes;
+            this.fanOffsets = fanOffsets;
+            this.fans = fans;
+            this.likeOffsets = likeOffsets;
+            this.userFilms = userFilms;
+            this.neighbourLists = neighbourLists;
+            this.similarityLists = similarityLists;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > FILMS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(subtask(from, middle), subtask(middle, to));
+                return;
+            }
+            int[] common = new int[filmLikes.length];
+            int[] touched = new int[filmLikes.length];
+            for (int film = from; film < to; film++) {
+                int touchedCount = 0;
+                for (int k = fanOffsets[film]; k < fanOffsets[film + 1]; k++) {
+                    int user = fans[k];
+                    for (int l = likeOffsets[user]; l < likeOffsets[user + 1]; l++) {
+                        int other = userFilms[l];
+                        if (other != film && common[other]++ == 0) {
+                            touched[touchedCount++] = other;
+                        }
+                    }
+                }
+                selectTop(film, common, touched, touchedCount);
+                for (int t = 0; t < touchedCount; t++) {
+                    common[touched[t]] = 0;
+                }
+            }
+        }
+
+        // вставками держит neighbours лучших по убыванию похожести, при равенстве по возрастанию номера
+        private void selectTop(int film, int[] common, int[] touched, int touchedCount) {
+            int[] top = new int[Math.min(neighbours, touchedCount)];
+            float[] topSimilarities = new float[top.length];
+            int size = 0;
+            for (int t = 0; t < touchedCount; t++) {
+                int other = touched[t];
+                float similarity = (float) (common[other] / Math.sqrt((double) filmLikes[film] * filmLikes[other]));
+                int position = size;
+                while (position > 0 && (topSimilarities[position - 1] < similarity
+                        || topSimilarities[position - 1] == similarity && top[position - 1] > other)) {
+                    position--;
+                }
+                if (position == top.length) {
+                    continue;
+                }
+                int shift = Math.min(size, top.length - 1) - position;
+                System.arraycopy(top, position, top, position + 1, shift);
+                System.arraycopy(topSimilarities, position, topSimilarities, position + 1, shift);
+                top[position] = other;
+                topSimilarities[position] = similarity;
+                size = Math.min(size + 1, top.length);
+            }
+            neighbourLists[film] = top;
+            similarityLists[film] = topSimilarities;
+        }
+
+        private NeighbourTask subtask(int subFrom, int subTo) {
+            return new NeighbourTask(subFrom, subTo, neighbours, filmLikes, fanOffsets, fans,
+                    likeOffsets, userFilms, neighbourLists, similarityLists);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package ru.yandex.practicum.filmorate.index;
+
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// граф дружбы в сжатых битовых множествах (Roaring) для рекомендаций друзей; множества подменяются копией
+public class FriendBitmapIndex {
+
+    private static final RoaringBitmap NO_FRIENDS = new RoaringBitmap();
+    private static final Comparator<Suggestion> BY_MUTUAL_DESC = Comparator.comparingInt(Suggestion::mutualFriends)
+            .reversed()
+            .thenComparingLong(Suggestion::userId);
+
+    // id в базе BIGINT, а Roaring хранит int: каждому id выдается плотный номер, номера не освобождаются
+    private final Map<Long, Integer> denseIds = new ConcurrentHashMap<>();
+    // обратное отображение: плотный номер -> id пользователя
+    private volatile long[] userIds = new long[16];
+    private final Map<Integer, RoaringBitmap> friends = new ConcurrentHashMap<>();
+
+    public record Suggestion(long userId, int mutualFriends) {
+    }
+
+    // полностью заменяет содержимое индекса: userId -> id друзей
+    public void rebuild(Map<Long, long[]> friendLists) {
+        Map<Integer, RoaringBitmap> bitmaps = new HashMap<>();
+        friendLists.forEach((userId, ids) -> {
+            RoaringBitmap bitmap = new RoaringBitmap();
+            for (long id : ids) {
+                bitmap.add(denseId(id));
+            }
+            bitmap.runOptimize();
+            bitmaps.put(denseId(userId), bitmap);
+        });
+        friends.keySet().retainAll(bitmaps.keySet());
+        friends.putAll(bitmaps);
+    }
+
+    public void addFriend(long userId, long friendId) {
+        int friend = denseId(friendId);
+        friends.compute(denseId(userId), (id, bitmap) -> {
+            if (bitmap != null && bitmap.contains(friend)) {
+                return bitmap;
+            }
+            RoaringBitmap copy = bitmap == null ? new RoaringBitmap() : bitmap.clone();
+            copy.add(friend);
+            return copy;
+        });
+    }
+
+    public void removeFriend(long userId, long friendId) {
+        Integer user = denseIds.get(userId);
+        Integer friend = denseIds.get(friendId);
+        if (user == null || friend == null) {
+            return;
+        }
+        friends.computeIfPresent(user, (id, bitmap) -> {
+            if (!bitmap.contains(friend)) {
+                return bitmap;
+            }
+            RoaringBitmap copy = bitmap.clone();
+            copy.remove(friend);
+            return copy;
+        });
+    }
+
+    // не больше limit кандидатов по убыванию числа общих друзей, при равенстве по возрастанию id
+    public List<Suggestion> suggestions(long userId, int limit) {
+        Integer user = denseIds.get(userId);
+        if (user == null) {
+            return List.of();
+        }
+        RoaringBitmap own = friends(user);
+        if (own.isEmpty()) {
+            return List.of();
+        }
+        List<RoaringBitmap> friendsOfFriends = new ArrayList<>(own.getCardinality());
+        own.forEach((int friend) -> friendsOfFriends.add(friends(friend)));
+        RoaringBitmap candidates = FastAggregation.or(friendsOfFriends.iterator());
+        candidates.andNot(own);
+        candidates.remove(user);
+
+        // в куче лучшие limit кандидатов, в вершине худший из них
+        long[] ids = userIds;
+        PriorityQueue<Suggestion> top = new PriorityQueue<>(limit + 1, BY_MUTUAL_DESC.reversed());
+        IntIterator iterator = candidates.getIntIterator();
+        while (iterator.hasNext()) {
+            int candidate = iterator.next();
+            int mutual = RoaringBitmap.andCardinality(own, friends(candidate));
+            if (mutual == 0) {
+                // кандидат попал сюда по односторонней записи друга, сам его в друзья не добавил
+                continue;
+            }
+            top.offer(new Suggestion(ids[candidate], mutual));
+            if (top.size() > limit) {
+                top.poll();
+            }
+        }
+        List<Suggestion> result = new ArrayList<>(top);
+        result.sort(BY_MUTUAL_DESC);
+        return result;
+    }
+
+    private RoaringBitmap friends(int user) {
+        return friends.getOrDefault(user, NO_FRIENDS);
+    }
+
+    private int denseId(long userId) {
+        Integer user = denseIds.get(userId);
+        return user != null ? user : assignDenseId(userId);
+    }
+
+    // номер публикуется после записи в userIds: кто увидел номер в множестве, найдет и его id
+    private synchronized int assignDenseId(long userId) {
+        Integer user = denseIds.get(userId);
+        if (user != null) {
+            return user;
+        }
+        int next = denseIds.size();
+        long[] ids = userIds;
+        if (next == ids.length) {
+            ids = Arrays.copyOf(ids, next * 2);
+        }
+        ids[next] = userId;
+        userIds = ids;
+        denseIds.put(userId, next);
+        return next;
+    }
+}
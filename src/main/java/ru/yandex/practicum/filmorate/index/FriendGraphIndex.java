@@ -0,0 +1,124 @@
+package ru.yandex.practicum.filmorate.index;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// граф дружбы в памяти: отсортированные массивы id друзей, при изменении подменяются копией
+public class FriendGraphIndex {
+
+    private static final long[] NO_FRIENDS = new long[0];
+    // во сколько раз длинный массив должен быть больше короткого, чтобы галопирующий поиск обогнал слияние
+    private static final int GALLOP_RATIO = 32;
+
+    private final Map<Long, long[]> friends = new ConcurrentHashMap<>();
+
+    // полностью заменяет содержимое индекса: userId -> отсортированные id друзей
+    public void rebuild(Map<Long, long[]> friendLists) {
+        // без промежуточной очистки: читающие видят либо старый, либо новый список пользователя
+        friends.keySet().retainAll(friendLists.keySet());
+        friends.putAll(friendLists);
+    }
+
+    public void addUser(long userId) {
+        friends.putIfAbsent(userId, NO_FRIENDS);
+    }
+
+    public boolean contains(long userId) {
+        return friends.containsKey(userId);
+    }
+
+    public void addFriend(long userId, long friendId) {
+        friends.compute(userId, (id, list) -> insert(list == null ? NO_FRIENDS : list, friendId));
+    }
+
+    public void removeFriend(long userId, long friendId) {
+        friends.computeIfPresent(userId, (id, list) -> remove(list, friendId));
+    }
+
+    public long[] friends(long userId) {
+        return friends.getOrDefault(userId, NO_FRIENDS);
+    }
+
+    // id друзей, общих для двух пользователей, по возрастанию
+    public long[] commonFriends(long userId, long otherId) {
+        return intersect(friends(userId), friends(otherId));
+    }
+
+    static long[] intersect(long[] first, long[] second) {
+        long[] small = first.length <= second.length ? first : second;
+        long[] large = small == first ? second : first;
+        if (small.length == 0) {
+            return NO_FRIENDS;
+        }
+        return large.length / small.length >= GALLOP_RATIO ? gallop(small, large) : merge(small, large);
+    }
+
+    private static long[] merge(long[] first, long[] second) {
+        long[] result = new long[first.length];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < first.length && j < second.length) {
+            if (first[i] < second[j]) {
+                i++;
+            } else if (first[i] > second[j]) {
+                j++;
+            } else {
+                result[size++] = first[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    // для каждого элемента короткого массива шаг по длинному удваивается, пока не перешагнет искомое,
+    // затем двоичный поиск в последнем отрезке; следующий поиск начинается с найденной позиции
+    private static long[] gallop(long[] small, long[] large) {
+        long[] result = new long[small.length];
+        int size = 0;
+        int from = 0;
+        for (long id : small) {
+            int bound = 1;
+            while (from + bound < large.length && large[from + bound] < id) {
+                bound <<= 1;
+            }
+            int index = Arrays.binarySearch(large, from + bound / 2, Math.min(from + bound + 1, large.length), id);
+            if (index >= 0) {
+                result[size++] = id;
+                from = index + 1;
+            } else {
+                from = -index - 1;
+            }
+            if (from >= large.length) {
+                break;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    private static long[] insert(long[] list, long id) {
+        int index = Arrays.binarySearch(list, id);
+        if (index >= 0) {
+            return list;
+        }
+        int position = -index - 1;
+        long[] result = new long[list.length + 1];
+        System.arraycopy(list, 0, result, 0, position);
+        result[position] = id;
+        System.arraycopy(list, position, result, position + 1, list.length - position);
+        return result;
+    }
+
+    private static long[] remove(long[] list, long id) {
+        int index = Arrays.binarySearch(list, id);
+        if (index < 0) {
+            return list;
+        }
+        long[] result = new long[list.length - 1];
+        System.arraycopy(list, 0, result, 0, index);
+        System.arraycopy(list, index + 1, result, index, list.length - index - 1);
+        return result;
+    }
+}
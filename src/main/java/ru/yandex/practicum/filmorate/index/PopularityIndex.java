@@ -0,0 +1,130 @@
+package ru.yandex.practicum.filmorate.index;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+// рейтинг фильмов по лайкам в памяти: дерево по убыванию лайков, при равенстве по id
+public class PopularityIndex {
+
+    private static final Comparator<Entry> BY_LIKES_DESC = Comparator.comparingInt(Entry::likes)
+            .reversed()
+            .thenComparingLong(Entry::filmId);
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Long, Entry> entries = new HashMap<>();
+    private final NavigableSet<Entry> ranking = new TreeSet<>(BY_LIKES_DESC);
+    // изменения, пришедшие во время перестроения: применяются поверх прочитанных счетчиков; вне перестроения null
+    private Map<Long, Integer> pendingChanges;
+
+    // полностью заменяет содержимое индекса: filmId -> количество лайков. Счетчики читаются без блокировки,
+    // лайки и фильмы, добавленные за это время, применяются к новому индексу повторно; лайк, записанный в базу
+    // до чтения, но дошедший до индекса уже после начала перестроения, посчитается дважды до следующего перестроения
+    public synchronized void rebuild(Supplier<Map<Long, Integer>> likeCounts) {
+        setPendingChanges(new HashMap<>());
+        Map<Long, Integer> counts;
+        try {
+            counts = likeCounts.get();
+        } catch (RuntimeException e) {
+            // индекс остается прежним, изменения в нем уже учтены
+            setPendingChanges(null);
+            throw e;
+        }
+        lock.writeLock().lock();
+        try {
+            entries.clear();
+            ranking.clear();
+            counts.forEach(this::put);
+            pendingChanges.forEach(this::change);
+            pendingChanges = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void addFilm(long filmId) {
+        lock.writeLock().lock();
+        try {
+            if (!entries.containsKey(filmId)) {
+                put(filmId, 0);
+            }
+            if (pendingChanges != null) {
+                pendingChanges.putIfAbsent(filmId, 0);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void increment(long filmId) {
+        add(filmId, 1);
+    }
+
+    public void decrement(long filmId) {
+        add(filmId, -1);
+    }
+
+    public void add(long filmId, int delta) {
+        lock.writeLock().lock();
+        try {
+            change(filmId, delta);
+            if (pendingChanges != null) {
+                pendingChanges.merge(filmId, delta, Integer::sum);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean contains(long filmId) {
+        lock.readLock().lock();
+        try {
+            return entries.containsKey(filmId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // id самых популярных фильмов, от большего количества лайков к меньшему
+    public List<Long> top(int count) {
+        lock.readLock().lock();
+        try {
+            List<Long> ids = new ArrayList<>(Math.min(count, ranking.size()));
+            Iterator<Entry> iterator = ranking.iterator();
+            while (ids.size() < count && iterator.hasNext()) {
+                ids.add(iterator.next().filmId());
+            }
+            return ids;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void setPendingChanges(Map<Long, Integer> changes) {
+        lock.writeLock().lock();
+        try {
+            pendingChanges = changes;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void change(long filmId, int delta) {
+        Entry entry = entries.get(filmId);
+        int likes = entry == null ? 0 : entry.likes();
+        if (entry != null) {
+            ranking.remove(entry);
+        }
+        put(filmId, Math.max(0, likes + delta));
+    }
+
+    private void put(long filmId, int likes) {
+        Entry entry = new Entry(filmId, likes);
+        entries.put(filmId, entry);
+        ranking.add(entry);
+    }
+
+    private record Entry(long filmId, int likes) {
+    }
+}
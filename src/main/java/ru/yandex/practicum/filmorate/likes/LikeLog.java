@@ -0,0 +1,121 @@
+package ru.yandex.practicum.filmorate.likes;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// журнал лайков в файле, отображенном в память: записи фиксированной длины с эпохой и CRC32,
+// читается до первой записи с неверной суммой или чужой эпохой
+public class LikeLog implements Closeable {
+    static final int RECORD_SIZE = 25;
+
+    private static final int HEADER_SIZE = 16;
+    private static final int EPOCH_POSITION = 0;
+    private static final int FLUSHED_POSITION = 8;
+    private static final int CHECKED_SIZE = RECORD_SIZE - Integer.BYTES;
+    private static final byte LIKE = 1;
+    private static final byte UNLIKE = 2;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int limit;
+    private final CRC32 crc = new CRC32();
+    private int epoch;
+    // записи до flushed уже в базе, от flushed до written ждут выгрузки
+    private int flushed;
+    private int written;
+
+    public LikeLog(Path path, int maxRecords) throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // файл от прошлого запуска мог быть больше: его записи тоже нужно дочитать
+        long size = Math.max(HEADER_SIZE + (long) maxRecords * RECORD_SIZE, channel.size());
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Журнал лайков не может быть больше 2 ГБ");
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        limit = (int) size;
+        epoch = buffer.getInt(EPOCH_POSITION);
+        flushed = (int) buffer.getLong(FLUSHED_POSITION);
+        if (flushed < HEADER_SIZE || flushed > limit) {
+            flushed = HEADER_SIZE;
+        }
+        written = flushed;
+        while (written + RECORD_SIZE <= limit && isValid(written)) {
+            written += RECORD_SIZE;
+        }
+    }
+
+    // false, если журнал заполнен и сначала нужно выгрузить накопленное в базу
+    public synchronized boolean append(long filmId, long userId, boolean liked) {
+        if (written + RECORD_SIZE > limit) {
+            return false;
+        }
+        buffer.putLong(written, filmId);
+        buffer.putLong(written + 8, userId);
+        buffer.putInt(written + 16, epoch);
+        buffer.put(written + 20, liked ? LIKE : UNLIKE);
+        buffer.putInt(written + CHECKED_SIZE, checksum(written));
+        written += RECORD_SIZE;
+        return true;
+    }
+
+    // записи, еще не перенесенные в базу, в порядке добавления
+    public synchronized Pending pending() {
+        List<Operation> operations = new ArrayList<>((written - flushed) / RECORD_SIZE);
+        for (int position = flushed; position < written; position += RECORD_SIZE) {
+            operations.add(new Operation(buffer.getLong(position), buffer.getLong(position + 8),
+                    buffer.get(position + 20) == LIKE));
+        }
+        return new Pending(operations, written);
+    }
+
+    // отмечает выгруженными записи до end, полученного из pending()
+    public synchronized void markFlushed(int end) {
+        if (written == end) {
+            // новая эпоха делает все прежние записи недействительными, стирать их не нужно
+            epoch++;
+            buffer.putInt(EPOCH_POSITION, epoch);
+            flushed = HEADER_SIZE;
+            written = HEADER_SIZE;
+        } else {
+            flushed = end;
+        }
+        buffer.putLong(FLUSHED_POSITION, flushed);
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    private boolean isValid(int position) {
+        byte operation = buffer.get(position + 20);
+        return (operation == LIKE || operation == UNLIKE)
+                && buffer.getInt(position + 16) == epoch
+                && buffer.getInt(position + CHECKED_SIZE) == checksum(position);
+    }
+
+    private int checksum(int position) {
+        crc.reset();
+        crc.update(buffer.slice(position, CHECKED_SIZE));
+        return (int) crc.getValue();
+    }
+
+    public record Operation(long filmId, long userId, boolean liked) {
+    }
+
+    public record Pending(List<Operation> operations, int end) {
+    }
+}
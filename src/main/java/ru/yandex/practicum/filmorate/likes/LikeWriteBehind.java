@@ -0,0 +1,132 @@
+package ru.yandex.practicum.filmorate.likes;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.model.Like;
+import ru.yandex.practicum.filmorate.model.LikeStatus;
+import ru.yandex.practicum.filmorate.storage.FilmDbStorage;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+// отложенная запись лайков: операции подтверждаются после записи в LikeLog и переносятся в базу пачками,
+// для каждой пары фильм-пользователь — только последняя
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "filmorate.likes.write-behind.enabled", havingValue = "true")
+public class LikeWriteBehind {
+
+    private final FilmDbStorage filmStorage;
+    private final TransactionTemplate transactionTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+    private final LikeLog likeLog;
+
+    @Autowired
+    public LikeWriteBehind(FilmDbStorage filmStorage,
+                           PlatformTransactionManager transactionManager,
+                           ApplicationEventPublisher eventPublisher,
+                           @Value("${filmorate.likes.write-behind.path:./db/likes.log}") Path path,
+                           @Value("${filmorate.likes.write-behind.max-records:1000000}") int maxRecords)
+            throws IOException {
+        this.filmStorage = filmStorage;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.eventPublisher = eventPublisher;
+        this.likeLog = new LikeLog(path, maxRecords);
+    }
+
+    public void like(long filmId, long userId) {
+        append(filmId, userId, true);
+    }
+
+    public void unlike(long filmId, long userId) {
+        append(filmId, userId, false);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void replay() {
+        int replayed = flush();
+        if (replayed > 0) {
+            log.info("Из журнала лайков восстановлено операций: {}", replayed);
+        }
+    }
+
+    // возвращает число выгруженных записей журнала
+    @Scheduled(fixedDelayString = "${filmorate.likes.write-behind.flush-interval:500}")
+    public int flush() {
+        return flush(true);
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        // при остановке слушатели событий уже могут быть уничтожены, рейтинг все равно строится заново при старте
+        flush(false);
+        likeLog.close();
+    }
+
+    private void append(long filmId, long userId, boolean liked) {
+        while (!likeLog.append(filmId, userId, liked)) {
+            // журнал заполнен: запрос ждет, пока накопленное не уйдет в базу
+            flush();
+        }
+    }
+
+    private synchronized int flush(boolean publish) {
+        LikeLog.Pending pending = likeLog.pending();
+        if (pending.operations().isEmpty()) {
+            return 0;
+        }
+        Map<Like, Boolean> lastOperations = new LinkedHashMap<>();
+        for (LikeLog.Operation operation : pending.operations()) {
+            lastOperations.put(new Like(operation.filmId(), operation.userId()), operation.liked());
+        }
+        List<Like> added = new ArrayList<>();
+        List<Like> removed = new ArrayList<>();
+        lastOperations.forEach((like, liked) -> (liked ? added : removed).add(like));
+
+        Map<Long, Integer> changes = transactionTemplate.execute(status -> apply(added, removed));
+        // повторная выгрузка после сбоя между коммитом и этой отметкой безопасна: операции идемпотентны
+        likeLog.markFlushed(pending.end());
+        if (publish && !changes.isEmpty()) {
+            eventPublisher.publishEvent(new LikesFlushedEvent(changes));
+        }
+        log.debug("Выгружено операций с лайками: {}, в базу ушло: {}", pending.operations().size(),
+                lastOperations.size());
+        return pending.operations().size();
+    }
+
+    private Map<Long, Integer> apply(List<Like> added, List<Like> removed) {
+        Map<Long, Integer> changes = new HashMap<>();
+        List<LikeStatus> statuses = filmStorage.addLikes(added);
+        int unknown = 0;
+        for (int i = 0; i < statuses.size(); i++) {
+            if (statuses.get(i) == LikeStatus.INSERTED) {
+                changes.merge(added.get(i).getFilmId(), 1, Integer::sum);
+            } else if (statuses.get(i) != LikeStatus.DUPLICATE) {
+                unknown++;
+            }
+        }
+        if (unknown > 0) {
+            // фильм и пользователь проверяются при приеме лайка: здесь отклоняются только удаленные после этого
+            log.warn("Пропущено лайков несуществующих фильмов или пользователей: {}", unknown);
+        }
+        List<Boolean> deleted = filmStorage.removeLikes(removed);
+        for (int i = 0; i < deleted.size(); i++) {
+            if (deleted.get(i)) {
+                changes.merge(removed.get(i).getFilmId(), -1, Integer::sum);
+            }
+        }
+        changes.values().removeIf(change -> change == 0);
+        return changes;
+    }
+}
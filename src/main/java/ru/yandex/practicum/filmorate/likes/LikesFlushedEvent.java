@@ -0,0 +1,7 @@
+package ru.yandex.practicum.filmorate.likes;
+
+import java.util.Map;
+
+// изменение числа лайков по фильмам после выгрузки журнала в базу: filmId -> разница
+public record LikesFlushedEvent(Map<Long, Integer> likeCountChanges) {
+}
@@ -29,6 +29,7 @@ public final class FilmMapper {
         dto.setDuration(film.getDuration());
         dto.setMpa(film.getMpa());
         dto.setGenres(film.getGenres());
+        dto.setVersion(film.getVersion());
         return dto;
     }
 
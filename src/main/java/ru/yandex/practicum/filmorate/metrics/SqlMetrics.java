@@ -0,0 +1,81 @@
+package ru.yandex.practicum.filmorate.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.dto.SqlQueryStatsDto;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// время и число строк по каждому SQL-запросу хранилищ: /actuator/metrics и сводка в GET /admin/metrics/sql
+@Component
+public class SqlMetrics {
+    public static final String LATENCY_METRIC = "filmorate.sql.latency";
+    public static final String ROWS_METRIC = "filmorate.sql.rows";
+
+    private static final double[] PERCENTILES = {0.5, 0.99, 0.999};
+
+    private final MeterRegistry registry;
+    private final Map<String, QueryMeters> meters = new ConcurrentHashMap<>();
+
+    @Autowired
+    public SqlMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    public void record(String repository, String query, long nanos, long rows) {
+        QueryMeters queryMeters = meters.computeIfAbsent(query, name -> new QueryMeters(repository,
+                Timer.builder(LATENCY_METRIC)
+                        .tag("repository", repository)
+                        .tag("query", name)
+                        .publishPercentiles(PERCENTILES)
+                        .register(registry),
+                DistributionSummary.builder(ROWS_METRIC)
+                        .tag("repository", repository)
+                        .tag("query", name)
+                        .register(registry)));
+        queryMeters.latency().record(nanos, TimeUnit.NANOSECONDS);
+        queryMeters.rows().record(rows);
+    }
+
+    // запросы упорядочены по p99, самые медленные сверху
+    public List<SqlQueryStatsDto> report() {
+        return meters.entrySet().stream()
+                .map(entry -> toDto(entry.getKey(), entry.getValue()))
+                .sorted(Comparator.comparingDouble(SqlQueryStatsDto::getP99Ms).reversed())
+                .toList();
+    }
+
+    private static SqlQueryStatsDto toDto(String query, QueryMeters queryMeters) {
+        HistogramSnapshot snapshot = queryMeters.latency().takeSnapshot();
+        SqlQueryStatsDto.SqlQueryStatsDtoBuilder stats = SqlQueryStatsDto.builder()
+                .query(query)
+                .repository(queryMeters.repository())
+                .count(snapshot.count())
+                .rows((long) queryMeters.rows().totalAmount())
+                .meanMs(snapshot.mean(TimeUnit.MILLISECONDS))
+                .maxMs(snapshot.max(TimeUnit.MILLISECONDS));
+        for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+            double value = percentile.value(TimeUnit.MILLISECONDS);
+            if (percentile.percentile() == 0.5) {
+                stats.p50Ms(value);
+            } else if (percentile.percentile() == 0.99) {
+                stats.p99Ms(value);
+            } else if (percentile.percentile() == 0.999) {
+                stats.p999Ms(value);
+            }
+        }
+        return stats.build();
+    }
+
+    private record QueryMeters(String repository, Timer latency, DistributionSummary rows) {
+    }
+}
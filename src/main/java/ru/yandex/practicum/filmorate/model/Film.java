@@ -6,11 +6,11 @@ import jakarta.validation.constraints.Positive;
 import jakarta.validation.constraints.Size;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
+import ru.yandex.practicum.filmorate.collection.LongHashSet;
 import ru.yandex.practicum.filmorate.validation.NotBeforeDate;
 
 import java.time.LocalDate;
 import java.util.Comparator;
-import java.util.HashSet;
 import java.util.Set;
 
 /**
@@ -30,16 +30,12 @@ public class Film {
     LocalDate releaseDate;
     @Positive(message = "Длительность должна быть положительной")
     Integer duration;
-    Set<Long> likes;
+    // id пользователей, лайкнувших фильм; заполняется только в хранилище в памяти
+    LongHashSet likes = new LongHashSet();
     Set<Genre> genres;
     Rating mpa;
-
-    public Set<Long> getLikes() {
-        if (likes == null) {
-            return new HashSet<>();
-        }
-        return likes;
-    }
+    // растет при каждом изменении фильма, его жанров и лайков; по нему строится ETag
+    Long version;
 
     public static Comparator<Film> byLikesCount() {
         return Comparator.comparingInt(film -> film.getLikes() != null ? film.getLikes().size() : 0);
@@ -0,0 +1,9 @@
+package ru.yandex.practicum.filmorate.model;
+
+// результат добавления одного лайка из пакета
+public enum LikeStatus {
+    INSERTED,
+    DUPLICATE,
+    UNKNOWN_FILM,
+    UNKNOWN_USER
+}
@@ -3,10 +3,9 @@ package ru.yandex.practicum.filmorate.model;
 import jakarta.validation.constraints.*;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
+import ru.yandex.practicum.filmorate.collection.LongFlagMap;
 
 import java.time.LocalDate;
-import java.util.HashMap;
-import java.util.Map;
 
 @Data
 public class User {
@@ -23,12 +22,5 @@ public class User {
     String name;
     @PastOrPresent
     LocalDate birthday;
-    Map<Long, Boolean> friends;  //friendId, confirmed
-
-    public Map<Long, Boolean> getFriends() {
-        if (friends == null) {
-            return new HashMap<Long, Boolean>();
-        }
-        return friends;
-    }
+    LongFlagMap friends = new LongFlagMap();  //friendId, confirmed
 }
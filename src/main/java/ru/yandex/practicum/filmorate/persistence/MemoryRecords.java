@@ -0,0 +1,213 @@
+package ru.yandex.practicum.filmorate.persistence;
+
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Rating;
+import ru.yandex.practicum.filmorate.model.User;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+// двоичный формат записей снимка и журнала хранилищ в памяти, первый байт записи — ее тип
+final class MemoryRecords {
+
+    static final byte HEADER = 1;
+    static final byte FILM = 2;
+    static final byte USER = 3;
+    static final byte LIKE = 4;
+    static final byte UNLIKE = 5;
+    static final byte FRIEND = 6;
+    static final byte UNFRIEND = 7;
+    static final byte END = 8;
+
+    private static final long NO_DATE = Long.MIN_VALUE;
+    private static final int NO_NUMBER = Integer.MIN_VALUE;
+
+    private MemoryRecords() {
+    }
+
+    // заголовок снимка: поколение журнала, с которого продолжается история, и последние выданные id
+    record Header(long generation, long lastFilmId, long lastUserId) {
+    }
+
+    static byte[] header(Header header) {
+        return write(HEADER, out -> {
+            out.writeLong(header.generation());
+            out.writeLong(header.lastFilmId());
+            out.writeLong(header.lastUserId());
+        });
+    }
+
+    static byte[] end() {
+        return new byte[]{END};
+    }
+
+    static byte[] film(Film film, boolean withLikes) {
+        return write(FILM, out -> {
+            out.writeLong(film.getId());
+            writeString(out, film.getName());
+            writeString(out, film.getDescription());
+            out.writeLong(film.getReleaseDate() != null ? film.getReleaseDate().toEpochDay() : NO_DATE);
+            out.writeInt(film.getDuration() != null ? film.getDuration() : NO_NUMBER);
+            Rating mpa = film.getMpa();
+            out.writeInt(mpa != null && mpa.getId() != null ? mpa.getId() : NO_NUMBER);
+            writeString(out, mpa != null ? mpa.getName() : null);
+            Set<Genre> genres = film.getGenres();
+            out.writeInt(genres != null ? genres.size() : -1);
+            if (genres != null) {
+                for (Genre genre : genres) {
+                    out.writeInt(genre.getId() != null ? genre.getId() : NO_NUMBER);
+                    writeString(out, genre.getName());
+                }
+            }
+            long[] likes = withLikes ? likes(film) : new long[0];
+            out.writeInt(likes.length);
+            for (long userId : likes) {
+                out.writeLong(userId);
+            }
+        });
+    }
+
+    static byte[] user(User user, boolean withFriends) {
+        return write(USER, out -> {
+            out.writeLong(user.getId());
+            writeString(out, user.getEmail());
+            writeString(out, user.getLogin());
+            writeString(out, user.getName());
+            out.writeLong(user.getBirthday() != null ? user.getBirthday().toEpochDay() : NO_DATE);
+            long[] friends = withFriends ? friends(user) : new long[0];
+            out.writeInt(friends.length);
+            for (long friendId : friends) {
+                out.writeLong(friendId);
+            }
+        });
+    }
+
+    // лайк или дружба: пара id, смысл задает тип записи
+    static byte[] pair(byte type, long first, long second) {
+        return write(type, out -> {
+            out.writeLong(first);
+            out.writeLong(second);
+        });
+    }
+
+    static Header readHeader(ByteBuffer in) {
+        return new Header(in.getLong(), in.getLong(), in.getLong());
+    }
+
+    static Film readFilm(ByteBuffer in) {
+        Film film = new Film();
+        film.setId(in.getLong());
+        film.setName(readString(in));
+        film.setDescription(readString(in));
+        film.setReleaseDate(readDate(in));
+        int duration = in.getInt();
+        film.setDuration(duration != NO_NUMBER ? duration : null);
+        int mpaId = in.getInt();
+        String mpaName = readString(in);
+        if (mpaId != NO_NUMBER || mpaName != null) {
+            Rating mpa = new Rating();
+            mpa.setId(mpaId != NO_NUMBER ? mpaId : null);
+            mpa.setName(mpaName);
+            film.setMpa(mpa);
+        }
+        int genreCount = in.getInt();
+        if (genreCount >= 0) {
+            Set<Genre> genres = new LinkedHashSet<>();
+            for (int i = 0; i < genreCount; i++) {
+                Genre genre = new Genre();
+                int genreId = in.getInt();
+                genre.setId(genreId != NO_NUMBER ? genreId : null);
+                genre.setName(readString(in));
+                genres.add(genre);
+            }
+            film.setGenres(genres);
+        }
+        int likeCount = in.getInt();
+        for (int i = 0; i < likeCount; i++) {
+            film.getLikes().add(in.getLong());
+        }
+        return film;
+    }
+
+    static User readUser(ByteBuffer in) {
+        User user = new User();
+        user.setId(in.getLong());
+        user.setEmail(readString(in));
+        user.setLogin(readString(in));
+        user.setName(readString(in));
+        user.setBirthday(readDate(in));
+        int friendCount = in.getInt();
+        for (int i = 0; i < friendCount; i++) {
+            long friendId = in.getLong();
+            user.getFriends().put(Math.abs(friendId), friendId > 0);
+        }
+        return user;
+    }
+
+    // id друзей, неподтвержденная дружба — со знаком минус
+    // лайки и друзья меняются под блокировкой своего множества, снимок читает их параллельно с изменениями
+    private static long[] likes(Film film) {
+        synchronized (film.getLikes()) {
+            return film.getLikes().toArray();
+        }
+    }
+
+    private static long[] friends(User user) {
+        synchronized (user.getFriends()) {
+            long[] friends = new long[user.getFriends().size()];
+            int[] count = new int[1];
+            user.getFriends().forEach((friendId, confirmed) -> friends[count[0]++] = confirmed ? friendId : -friendId);
+            return friends;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    private static LocalDate readDate(ByteBuffer in) {
+        long epochDay = in.getLong();
+        return epochDay != NO_DATE ? LocalDate.ofEpochDay(epochDay) : null;
+    }
+
+    private static byte[] write(byte type, RecordBody body) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(type);
+            body.write(out);
+        } catch (IOException e) {
+            // запись идет в память, ошибка здесь означает ошибку в коде
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @FunctionalInterface
+    private interface RecordBody {
+        void write(DataOutputStream out) throws IOException;
+    }
+}
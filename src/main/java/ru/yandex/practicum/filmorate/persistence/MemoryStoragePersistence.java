@@ -0,0 +1,257 @@
+package ru.yandex.practicum.filmorate.persistence;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.InMemoryFilmStorage;
+import ru.yandex.practicum.filmorate.storage.InMemoryUserStorage;
+import ru.yandex.practicum.filmorate.storage.MemoryJournal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+// сохранение хранилищ в памяти: журнал изменений mutations-N.log и периодический снимок snapshot.bin
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "filmorate.memory.persistence.enabled", havingValue = "true")
+public class MemoryStoragePersistence implements MemoryJournal {
+
+    private static final String SNAPSHOT = "snapshot.bin";
+    private static final String LOG_PREFIX = "mutations-";
+    private static final String LOG_SUFFIX = ".log";
+
+    private final InMemoryFilmStorage filmStorage;
+    private final InMemoryUserStorage userStorage;
+    private final Path directory;
+    // изменения хранилищ идут под общей блокировкой, переключение журнала — под исключительной
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // плановый снимок и снимок при остановке не пишутся одновременно
+    private final Object snapshotLock = new Object();
+    private RecordFile mutationLog;
+    private long generation;
+
+    @Autowired
+    public MemoryStoragePersistence(InMemoryFilmStorage filmStorage,
+                                    InMemoryUserStorage userStorage,
+                                    @Value("${filmorate.memory.persistence.path:./db/memory}") Path directory)
+            throws IOException {
+        this.filmStorage = filmStorage;
+        this.userStorage = userStorage;
+        this.directory = directory;
+        Files.createDirectories(directory);
+        load();
+        filmStorage.setJournal(this);
+        userStorage.setJournal(this);
+    }
+
+    @Override
+    public <T> T mutate(Supplier<T> change) {
+        lock.readLock().lock();
+        try {
+            return change.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void filmCreated(Film film) {
+        append(MemoryRecords.film(film, true));
+    }
+
+    @Override
+    public void filmUpdated(Film film) {
+        append(MemoryRecords.film(film, false));
+    }
+
+    @Override
+    public void userCreated(User user) {
+        append(MemoryRecords.user(user, true));
+    }
+
+    @Override
+    public void userUpdated(User user) {
+        append(MemoryRecords.user(user, false));
+    }
+
+    @Override
+    public void likeChanged(long filmId, long userId, boolean liked) {
+        append(MemoryRecords.pair(liked ? MemoryRecords.LIKE : MemoryRecords.UNLIKE, filmId, userId));
+    }
+
+    @Override
+    public void friendChanged(long userId, long friendId, boolean added) {
+        append(MemoryRecords.pair(added ? MemoryRecords.FRIEND : MemoryRecords.UNFRIEND, userId, friendId));
+    }
+
+    @Scheduled(fixedDelayString = "${filmorate.memory.persistence.snapshot-interval:600000}",
+            initialDelayString = "${filmorate.memory.persistence.snapshot-interval:600000}")
+    public void snapshot() throws IOException {
+        synchronized (snapshotLock) {
+            long start = System.nanoTime();
+            MemoryRecords.Header header;
+            lock.writeLock().lock();
+            try {
+                // изменения после переключения пишутся в журнал следующего поколения
+                long snapshotGeneration = generation + 1;
+                RecordFile nextLog = RecordFile.openForWrite(logPath(snapshotGeneration));
+                mutationLog.truncate();
+                mutationLog.close();
+                mutationLog = nextLog;
+                generation = snapshotGeneration;
+                header = new MemoryRecords.Header(snapshotGeneration, filmStorage.lastId(), userStorage.lastId());
+            } finally {
+                lock.writeLock().unlock();
+            }
+            // снимок может застать часть изменений нового поколения: они есть в его журнале,
+            // а проигрывание записей поверх снимка идемпотентно
+            writeSnapshot(header);
+            deleteLogsBefore(header.generation());
+            log.info("Снимок хранилищ в памяти записан за {} мс", (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        try {
+            // следующий старт загрузит снимок, не проигрывая журнал
+            snapshot();
+        } finally {
+            lock.writeLock().lock();
+            try {
+                mutationLog.truncate();
+                mutationLog.close();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private synchronized void append(byte[] record) {
+        try {
+            mutationLog.append(record);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось записать изменение в журнал " + mutationLog.path(), e);
+        }
+    }
+
+    private void load() throws IOException {
+        long start = System.nanoTime();
+        Path snapshotPath = directory.resolve(SNAPSHOT);
+        if (Files.exists(snapshotPath)) {
+            generation = readSnapshot(snapshotPath);
+        }
+        deleteLogsBefore(generation);
+        long replayed = 0;
+        List<Long> generations = logGenerations();
+        for (long logGeneration : generations) {
+            if (mutationLog != null) {
+                mutationLog.truncate();
+                mutationLog.close();
+            }
+            // последний журнал остается открытым: новые записи пойдут следом за проигранными
+            mutationLog = RecordFile.openForWrite(logPath(logGeneration));
+            generation = logGeneration;
+            for (byte[] record = mutationLog.next(); record != null; record = mutationLog.next()) {
+                apply(ByteBuffer.wrap(record));
+                replayed++;
+            }
+        }
+        if (mutationLog == null) {
+            mutationLog = RecordFile.openForWrite(logPath(generation));
+        }
+        // рейтинг строится один раз по итоговым лайкам, а не меняется на каждой проигранной записи
+        filmStorage.rebuildPopularity();
+        log.info("Хранилища в памяти восстановлены за {} мс: фильмов {}, пользователей {}, изменений из журнала {}",
+                (System.nanoTime() - start) / 1_000_000, filmStorage.findAll().size(), userStorage.findAll().size(),
+                replayed);
+    }
+
+    private long readSnapshot(Path path) throws IOException {
+        try (RecordFile snapshot = RecordFile.openForRead(path)) {
+            byte[] record = snapshot.next();
+            if (record == null || record[0] != MemoryRecords.HEADER) {
+                throw new IllegalStateException("Снимок " + path + " поврежден: нет заголовка");
+            }
+            MemoryRecords.Header header = MemoryRecords.readHeader(ByteBuffer.wrap(record, 1, record.length - 1));
+            for (record = snapshot.next(); record != null && record[0] != MemoryRecords.END; record = snapshot.next()) {
+                apply(ByteBuffer.wrap(record));
+            }
+            if (record == null) {
+                throw new IllegalStateException("Снимок " + path + " поврежден: записи обрываются");
+            }
+            filmStorage.restoreLastId(header.lastFilmId());
+            userStorage.restoreLastId(header.lastUserId());
+            return header.generation();
+        }
+    }
+
+    private void apply(ByteBuffer record) {
+        byte type = record.get();
+        switch (type) {
+            case MemoryRecords.FILM -> filmStorage.restoreFilm(MemoryRecords.readFilm(record));
+            case MemoryRecords.USER -> userStorage.restoreUser(MemoryRecords.readUser(record));
+            case MemoryRecords.LIKE, MemoryRecords.UNLIKE ->
+                    filmStorage.restoreLike(record.getLong(), record.getLong(), type == MemoryRecords.LIKE);
+            case MemoryRecords.FRIEND, MemoryRecords.UNFRIEND ->
+                    userStorage.restoreFriendship(record.getLong(), record.getLong(), type == MemoryRecords.FRIEND);
+            default -> throw new IllegalStateException("Неизвестный тип записи " + type);
+        }
+    }
+
+    private void writeSnapshot(MemoryRecords.Header header) throws IOException {
+        Path temporary = directory.resolve(SNAPSHOT + ".tmp");
+        Files.deleteIfExists(temporary);
+        try (RecordFile snapshot = RecordFile.openForWrite(temporary)) {
+            snapshot.append(MemoryRecords.header(header));
+            for (User user : userStorage.findAll()) {
+                snapshot.append(MemoryRecords.user(user, true));
+            }
+            for (Film film : filmStorage.findAll()) {
+                snapshot.append(MemoryRecords.film(film, true));
+            }
+            snapshot.append(MemoryRecords.end());
+            snapshot.truncate();
+        }
+        Files.move(temporary, directory.resolve(SNAPSHOT), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void deleteLogsBefore(long minGeneration) throws IOException {
+        for (long logGeneration : logGenerations()) {
+            if (logGeneration < minGeneration) {
+                Files.delete(logPath(logGeneration));
+            }
+        }
+    }
+
+    // поколения журналов в каталоге по возрастанию
+    private List<Long> logGenerations() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith(LOG_PREFIX) && name.endsWith(LOG_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(LOG_PREFIX.length(), name.length() - LOG_SUFFIX.length())))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private Path logPath(long logGeneration) {
+        return directory.resolve(LOG_PREFIX + logGeneration + LOG_SUFFIX);
+    }
+}
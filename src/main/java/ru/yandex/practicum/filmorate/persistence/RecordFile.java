@@ -0,0 +1,133 @@
+package ru.yandex.practicum.filmorate.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+// файл записей [длина][содержимое][CRC32], отображенный в память скользящим окном;
+// читается до нулевой длины или записи с неверной суммой
+class RecordFile implements Closeable {
+
+    static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private static final int MAX_RECORD_SIZE = 1 << 30;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final FileChannel.MapMode mode;
+    private final CRC32 crc = new CRC32();
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long position;
+
+    private RecordFile(Path path, FileChannel channel, FileChannel.MapMode mode) {
+        this.path = path;
+        this.channel = channel;
+        this.mode = mode;
+    }
+
+    static RecordFile openForRead(Path path) throws IOException {
+        return new RecordFile(path, FileChannel.open(path, StandardOpenOption.READ), FileChannel.MapMode.READ_ONLY);
+    }
+
+    // существующие записи можно дочитать через next(), новые пишутся следом за ними
+    static RecordFile openForWrite(Path path) throws IOException {
+        return new RecordFile(path, FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE), FileChannel.MapMode.READ_WRITE);
+    }
+
+    Path path() {
+        return path;
+    }
+
+    // содержимое следующей записи или null, если записи закончились
+    byte[] next() throws IOException {
+        if (!available(Integer.BYTES)) {
+            return null;
+        }
+        int length = window(Integer.BYTES).getInt(offset(position));
+        if (length <= 0 || length > MAX_RECORD_SIZE || !available(Integer.BYTES + (long) length + Integer.BYTES)) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        long start = position + Integer.BYTES;
+        window(start, length).get(offset(start), payload);
+        long end = start + length;
+        int checksum = window(end, Integer.BYTES).getInt(offset(end));
+        crc.reset();
+        crc.update(payload);
+        if (checksum != (int) crc.getValue()) {
+            return null;
+        }
+        position = end + Integer.BYTES;
+        return payload;
+    }
+
+    // дописывает запись с текущей позиции
+    void append(byte[] payload) throws IOException {
+        int length = payload.length;
+        crc.reset();
+        crc.update(payload);
+        window(position, Integer.BYTES + length + Integer.BYTES + Integer.BYTES);
+        int offset = offset(position);
+        window.putInt(offset, length);
+        window.put(offset + Integer.BYTES, payload);
+        // сумма пишется после содержимого, а признак конца — после суммы
+        window.putInt(offset + Integer.BYTES + length + Integer.BYTES, 0);
+        window.putInt(offset + Integer.BYTES + length, (int) crc.getValue());
+        position += Integer.BYTES + length + Integer.BYTES;
+    }
+
+    // сбрасывает записанное на диск
+    void force() {
+        if (window != null) {
+            window.force();
+        }
+    }
+
+    // обрезает файл по концу последней записи
+    void truncate() throws IOException {
+        force();
+        window = null;
+        channel.truncate(position);
+        channel.force(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        window = null;
+        channel.close();
+    }
+
+    private boolean available(long bytes) throws IOException {
+        return mode == FileChannel.MapMode.READ_WRITE || position + bytes <= channel.size();
+    }
+
+    private MappedByteBuffer window(int bytes) throws IOException {
+        return window(position, bytes);
+    }
+
+    // отображает окно, в котором помещаются bytes байт начиная с from
+    private MappedByteBuffer window(long from, int bytes) throws IOException {
+        if (window != null && from >= windowStart && from + bytes <= windowStart + window.capacity()) {
+            return window;
+        }
+        force();
+        long size = Math.max(WINDOW_SIZE, bytes);
+        if (mode == FileChannel.MapMode.READ_ONLY) {
+            size = Math.min(size, channel.size() - from);
+        }
+        windowStart = from;
+        window = channel.map(mode, windowStart, size);
+        return window;
+    }
+
+    private int offset(long at) {
+        return (int) (at - windowStart);
+    }
+}
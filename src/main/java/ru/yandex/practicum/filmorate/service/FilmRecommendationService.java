@@ -0,0 +1,84 @@
+package ru.yandex.practicum.filmorate.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.dto.FilmDto;
+import ru.yandex.practicum.filmorate.index.FilmSimilarityModel;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+
+import java.util.Collection;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// рекомендации по модели похожести фильмов, которая перестраивается в фоне и подменяется целиком
+@Slf4j
+@Service
+public class FilmRecommendationService {
+
+    private final FilmStorage filmStorage;
+    private final FilmService filmService;
+    private final UserService userService;
+    private final int neighbours;
+    private final long rebuildInterval;
+    // свой поток: планировщик Spring однопоточный, и сборка модели задерживала бы выгрузку лайков и снимки
+    private final ScheduledExecutorService rebuilder = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("recommendations-rebuild").daemon().factory());
+    private volatile FilmSimilarityModel model = FilmSimilarityModel.EMPTY;
+
+    @Autowired
+    public FilmRecommendationService(@Qualifier("filmDbStorage") FilmStorage filmStorage,
+                                     FilmService filmService,
+                                     UserService userService,
+                                     @Value("${filmorate.recommendations.neighbours:20}") int neighbours,
+                                     @Value("${filmorate.recommendations.rebuild-interval:600000}")
+                                     long rebuildInterval) {
+        this.filmStorage = filmStorage;
+        this.filmService = filmService;
+        this.userService = userService;
+        this.neighbours = neighbours;
+        this.rebuildInterval = rebuildInterval;
+    }
+
+    public Collection<FilmDto> getRecommendations(Long userId, int limit) {
+        log.debug("Вызван метод getRecommendations userId = {}, limit = {}", userId, limit);
+        userService.checkUserKnown(userId);
+        return filmService.findFilmsByIds(model.recommend(userId, limit));
+    }
+
+    // первая модель строится в фоне после старта, до нее рекомендации пустые
+    @EventListener(ApplicationReadyEvent.class)
+    public void scheduleRebuilds() {
+        rebuilder.scheduleWithFixedDelay(this::rebuildQuietly, 0, rebuildInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void close() {
+        rebuilder.shutdownNow();
+    }
+
+    public void rebuildModel() {
+        long start = System.nanoTime();
+        FilmSimilarityModel built = FilmSimilarityModel.build(filmStorage.getLikedFilms(), neighbours,
+                ForkJoinPool.commonPool());
+        model = built;
+        log.info("Модель рекомендаций построена за {} мс: фильмов {}, пользователей {}",
+                (System.nanoTime() - start) / 1_000_000, built.filmCount(), built.userCount());
+    }
+
+    // исключение отменило бы все следующие перестроения
+    private void rebuildQuietly() {
+        try {
+            rebuildModel();
+        } catch (RuntimeException e) {
+            log.error("Не удалось перестроить модель рекомендаций", e);
+        }
+    }
+}
@@ -3,95 +3,137 @@ package ru.yandex.practicum.filmorate.service;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.yandex.practicum.filmorate.cache.FilmJsonCache;
+import ru.yandex.practicum.filmorate.cache.ReferenceDataCache;
 import ru.yandex.practicum.filmorate.dto.FilmDto;
+import ru.yandex.practicum.filmorate.dto.LikeDto;
 import ru.yandex.practicum.filmorate.dto.NewFilmRequest;
+import ru.yandex.practicum.filmorate.dto.PageDto;
 import ru.yandex.practicum.filmorate.dto.UpdateFilmRequest;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.index.PopularityIndex;
+import ru.yandex.practicum.filmorate.likes.LikeWriteBehind;
+import ru.yandex.practicum.filmorate.likes.LikesFlushedEvent;
 import ru.yandex.practicum.filmorate.mapper.FilmMapper;
 import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Like;
+import ru.yandex.practicum.filmorate.model.LikeStatus;
 import ru.yandex.practicum.filmorate.model.Rating;
-import ru.yandex.practicum.filmorate.model.User;
 import ru.yandex.practicum.filmorate.storage.*;
 
 
 import java.util.*;
+import java.util.function.Consumer;
 
 @Slf4j
 @Service
 public class FilmService {
 
     private final FilmStorage filmStorage;
-    private final UserStorage userStorage;
-    private final RatingStorage ratingStorage;
     private final GenreStorage genreStorage;
+    private final ReferenceDataCache referenceDataCache;
+    // рейтинг по лайкам в памяти: /films/popular не сортирует каталог в базе на каждый запрос
+    private final PopularityIndex popularityIndex = new PopularityIndex();
+    // заданы, если включена отложенная запись лайков: пользователь лайка проверяется по графу дружбы в памяти
+    private LikeWriteBehind likeWriteBehind;
+    private UserService userService;
+    // готовый JSON фильмов для GET /films/{id}, изменения фильма и лайков удаляют его запись
+    private FilmJsonCache filmJsonCache;
 
     @Autowired
     public FilmService(@Qualifier("filmDbStorage") FilmStorage filmStorage,
-                       @Qualifier("userDbStorage") UserStorage userStorage,
-                       RatingStorage ratingStorage,
-                       GenreStorage genreStorage) {
+                       GenreStorage genreStorage,
+                       ReferenceDataCache referenceDataCache) {
         this.filmStorage = filmStorage;
-        this.userStorage = userStorage;
-        this.ratingStorage = ratingStorage;
         this.genreStorage = genreStorage;
+        this.referenceDataCache = referenceDataCache;
+        rebuildPopularityIndex();
     }
 
-    public FilmService(@Qualifier("filmDbStorage") FilmStorage filmStorage,
-                       @Qualifier("userDbStorage") UserStorage userStorage) {
+    public FilmService(@Qualifier("filmDbStorage") FilmStorage filmStorage) {
         this.filmStorage = filmStorage;
-        this.userStorage = userStorage;
-        this.ratingStorage = null;
         this.genreStorage = null;
+        this.referenceDataCache = null;
+        rebuildPopularityIndex();
+    }
+
+    @Autowired(required = false)
+    public void setLikeWriteBehind(LikeWriteBehind likeWriteBehind, UserService userService) {
+        this.likeWriteBehind = likeWriteBehind;
+        this.userService = userService;
+    }
+
+    @Autowired(required = false)
+    public void setFilmJsonCache(FilmJsonCache filmJsonCache) {
+        this.filmJsonCache = filmJsonCache;
     }
 
     public Collection<FilmDto> findAll() {
-        return filmStorage.findAll()
-                .stream()
-                .peek(film -> film.setGenres(new HashSet<>(genreStorage.findAllByFilmId(film.getId()))))
-                .map(FilmMapper::mapToFilmDto)
-                .toList();
+        return mapToFilmDtos(filmStorage.findAll());
     }
 
+    // полная выгрузка каталога: фильмы передаются по одному по мере чтения из базы
+    public void exportAll(Consumer<FilmDto> action) {
+        filmStorage.streamAll(film -> action.accept(FilmMapper.mapToFilmDto(film)));
+    }
+
+    public PageDto<FilmDto> findPage(long afterId, int limit) {
+        // берем на одну запись больше, чтобы узнать, есть ли следующая страница
+        List<Film> films = filmStorage.findPage(afterId, limit + 1);
+        Long nextCursor = null;
+        if (films.size() > limit) {
+            films = films.subList(0, limit);
+            nextCursor = films.getLast().getId();
+        }
+        return new PageDto<>(mapToFilmDtos(films), nextCursor);
+    }
+
+    // фильм и его жанры видны другим запросам вместе: версия, прочитанная вместе с фильмом, описывает и жанры
+    @Transactional
     public FilmDto create(NewFilmRequest request) {
         Film film = FilmMapper.mapToFilm(request);
-        Rating rating = ratingStorage.findById(film.getMpa().getId()).orElseThrow(()
-                -> new NotFoundException(String.format("MPA с id %d не найден",
-                request.getMpa().getId())));
+        film.setMpa(findRating(request.getMpa().getId()));
+        Set<Genre> genres = request.hasGenres() ? findGenres(request.getGenres()) : new LinkedHashSet<>();
         Film finalFilm = filmStorage.create(film);
-        if (request.hasGenres()) {
-            request.getGenres().stream()
-                    .map(genre -> genreStorage.findById(genre.getId())
-                            .orElseThrow(() -> new NotFoundException(
-                                    "Жанр с id " + genre.getId() + " не найден")))
-                    .forEach(genre -> genreStorage.createFilmGenres(finalFilm.getId(), genre.getId()));
-        }
-        Set<Genre> genres = new LinkedHashSet<>(genreStorage.findAllByFilmId(finalFilm.getId()));  // Сохраняем порядок
+        genreStorage.createFilmGenres(finalFilm.getId(), genreIds(genres));
+        // в рейтинг фильм попадает только после коммита: по рейтингу проверяются лайки при отложенной записи
+        afterCommit(() -> popularityIndex.addFilm(finalFilm.getId()));
         finalFilm.setGenres(genres);
         return FilmMapper.mapToFilmDto(finalFilm);
     }
 
+    @Transactional
     public FilmDto update(UpdateFilmRequest request) {
         Film film = filmStorage.findById(request.getId()).orElseThrow(()
                 -> new NotFoundException(String.format("Фильм с id %d не найден",
                 request.getId())));
-        if (request.hasMpa()) {
-            Rating rating = ratingStorage.findById(film.getMpa().getId()).orElseThrow(()
-                    -> new NotFoundException(String.format("MPA с id %d не найден",
-                    request.getMpa().getId())));
-        }
+        Rating rating = request.hasMpa() ? findRating(request.getMpa().getId()) : film.getMpa();
+        Set<Genre> newGenres = request.hasGenres() ? findGenres(request.getGenres()) : null;
         film = FilmMapper.updateFilmFields(film, request);
+        film.setMpa(rating);
         Film finalFilm = filmStorage.update(film);
-        if (request.hasGenres()) {
-            Collection<Genre> newGenres = request.getGenres().stream()
-                    .map(genre -> genreStorage.findById(genre.getId())
-                            .orElseThrow(() -> new NotFoundException(
-                                    "Жанр с id " + genre.getId() + " не найден"))).toList();
-            genreStorage.deleteFilmGenres(finalFilm.getId());
-            newGenres.forEach(genre -> genreStorage.createFilmGenres(finalFilm.getId(), genre.getId()));
+        invalidateJson(finalFilm.getId());
+        if (newGenres != null) {
+            // пишем только разницу между старым и новым набором жанров
+            Set<Integer> oldIds = genreIds(genreStorage.findAllByFilmId(finalFilm.getId()));
+            Set<Integer> newIds = genreIds(newGenres);
+            genreStorage.deleteFilmGenres(finalFilm.getId(), oldIds.stream()
+                    .filter(id -> !newIds.contains(id))
+                    .toList());
+            genreStorage.createFilmGenres(finalFilm.getId(), newIds.stream()
+                    .filter(id -> !oldIds.contains(id))
+                    .toList());
+            finalFilm.setGenres(newGenres);
+        } else {
+            finalFilm.setGenres(new LinkedHashSet<>(genreStorage.findAllByFilmId(finalFilm.getId())));
         }
-        finalFilm.setGenres(new HashSet<>(genreStorage.findAllByFilmId(finalFilm.getId())));
         return FilmMapper.mapToFilmDto(finalFilm);
     }
 
@@ -102,30 +144,164 @@ public class FilmService {
         return FilmMapper.mapToFilmDto(film);
     }
 
+    // для проверки If-None-Match: версия без чтения фильма и жанров
+    public Optional<Long> findFilmVersion(Long id) {
+        return filmStorage.findVersion(id);
+    }
+
+    // названия жанров и рейтинга в фильме берутся из справочников, их версия — часть ETag фильма
+    public long getReferenceVersion() {
+        return referenceDataCache == null ? 0 : referenceDataCache.getVersion();
+    }
+
+    // существование фильма и пользователя проверяет хранилище, и только если лайк не изменился
     public void addLikeByUser(Long filmId, Long userId) {
         log.debug("Вызван метод addLikeByUser filmId = {}, userId = {}", filmId, userId);
-        Film film = filmStorage.findById(filmId).orElseThrow(() ->
-                new NotFoundException("Фильм с id = " + filmId + " не найден"));
-        User user = userStorage.findById(userId).orElseThrow(() ->
-                new NotFoundException("Пользователь с id = " + userId + " не найден"));
-        filmStorage.addLikeByUser(filmId, userId);
+        if (likeWriteBehind != null) {
+            checkFilmKnown(filmId);
+            userService.checkUserKnown(userId);
+            likeWriteBehind.like(filmId, userId);
+            return;
+        }
+        if (filmStorage.addLikeByUser(filmId, userId)) {
+            popularityIndex.increment(filmId);
+            invalidateJson(filmId);
+        }
     }
 
     public void deleteLikeByUser(Long filmId, Long userId) {
         log.debug("Вызван метод deleteLikeByUser filmId = {}, userId = {}", filmId, userId);
-        Film film = filmStorage.findById(filmId).orElseThrow(() ->
-                new NotFoundException("Фильм с id = " + filmId + " не найден"));
-        User user = userStorage.findById(userId).orElseThrow(() ->
-                new NotFoundException("Пользователь с id = " + userId + " не найден"));
+        if (likeWriteBehind != null) {
+            checkFilmKnown(filmId);
+            userService.checkUserKnown(userId);
+            likeWriteBehind.unlike(filmId, userId);
+            return;
+        }
+        if (filmStorage.deleteLikeByUser(filmId, userId)) {
+            popularityIndex.decrement(filmId);
+            invalidateJson(filmId);
+        }
+    }
 
-        filmStorage.deleteLikeByUser(filmId, userId);
+    public List<LikeDto> addLikes(List<LikeDto> requests) {
+        log.debug("Вызван метод addLikes, лайков в пакете: {}", requests.size());
+        List<Like> likes = requests.stream()
+                .map(request -> {
+                    if (request.getFilmId() == null || request.getUserId() == null) {
+                        throw new ValidationException("У каждого лайка должны быть filmId и userId");
+                    }
+                    return new Like(request.getFilmId(), request.getUserId());
+                })
+                .toList();
+        if (likeWriteBehind != null) {
+            // пакет пишется в базу сразу: принятые раньше одиночные лайки и отмены должны попасть туда до него
+            likeWriteBehind.flush();
+        }
+        List<LikeStatus> statuses = filmStorage.addLikes(likes);
+        for (int i = 0; i < requests.size(); i++) {
+            requests.get(i).setStatus(statuses.get(i));
+            if (statuses.get(i) == LikeStatus.INSERTED) {
+                popularityIndex.increment(likes.get(i).getFilmId());
+                invalidateJson(likes.get(i).getFilmId());
+            }
+        }
+        return requests;
     }
 
     public Collection<FilmDto> getPopularFilms(int count) {
         log.debug("Вызван метод getPopularFilms count = {}", count);
-        return filmStorage.getPopularFilms(count)
-                .stream()
-                .peek(film -> film.setGenres(new HashSet<>(genreStorage.findAllByFilmId(film.getId()))))
+        return findFilmsByIds(popularityIndex.top(count));
+    }
+
+    // фильмы в порядке переданных id, жанры подгружаются одним запросом на весь список
+    public Collection<FilmDto> findFilmsByIds(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        return mapToFilmDtos(filmStorage.findAllByIds(ids));
+    }
+
+    // при отложенной записи рейтинг догоняет базу после каждой выгрузки журнала
+    @EventListener
+    public void onLikesFlushed(LikesFlushedEvent event) {
+        event.likeCountChanges().forEach(popularityIndex::add);
+        event.likeCountChanges().keySet().forEach(this::invalidateJson);
+    }
+
+    // перестраивает рейтинг по таблице лайков, например после массовой загрузки мимо приложения
+    public void rebuildPopularityIndex() {
+        log.debug("Перестроение рейтинга популярности фильмов");
+        popularityIndex.rebuild(filmStorage::getLikeCounts);
+    }
+
+    // при отложенной записи лайк не доходит до базы сразу, поэтому фильм ищется в рейтинге, где есть все фильмы
+    private void checkFilmKnown(Long filmId) {
+        if (!popularityIndex.contains(filmId)) {
+            throw new NotFoundException("Фильм с id = " + filmId + " не найден");
+        }
+    }
+
+    // без транзакции действие выполняется сразу
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private void invalidateJson(Long filmId) {
+        if (filmJsonCache != null) {
+            filmJsonCache.invalidate(filmId);
+        }
+    }
+
+    private Rating findRating(Integer id) {
+        Rating rating = referenceDataCache.getRating(id);
+        if (rating == null) {
+            throw new NotFoundException(String.format("MPA с id %d не найден", id));
+        }
+        return rating;
+    }
+
+    // проверяет, что все жанры существуют, и возвращает их упорядоченными по id
+    private Set<Genre> findGenres(Collection<Genre> requested) {
+        Set<Genre> genres = new LinkedHashSet<>();
+        requested.stream()
+                .map(Genre::getId)
+                .sorted(Comparator.nullsFirst(Comparator.naturalOrder()))
+                .distinct()
+                .forEach(id -> {
+                    Genre genre = referenceDataCache.getGenre(id);
+                    if (genre == null) {
+                        throw new NotFoundException("Жанр с id " + id + " не найден");
+                    }
+                    genres.add(genre);
+                });
+        return genres;
+    }
+
+    private static Set<Integer> genreIds(Collection<Genre> genres) {
+        Set<Integer> ids = new LinkedHashSet<>();
+        genres.forEach(genre -> ids.add(genre.getId()));
+        return ids;
+    }
+
+    // жанры для всего списка фильмов подгружаются одним запросом, а не запросом на каждый фильм
+    private Collection<FilmDto> mapToFilmDtos(Collection<Film> films) {
+        if (films.isEmpty()) {
+            return List.of();
+        }
+        Map<Long, Set<Genre>> genresByFilm = genreStorage.findAllByFilmIds(films.stream()
+                .map(Film::getId)
+                .toList());
+        return films.stream()
+                .peek(film -> film.setGenres(genresByFilm.getOrDefault(film.getId(), new LinkedHashSet<>())))
                 .map(FilmMapper::mapToFilmDto)
                 .toList();
     }
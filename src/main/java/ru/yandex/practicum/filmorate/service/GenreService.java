@@ -3,11 +3,11 @@ package ru.yandex.practicum.filmorate.service;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.cache.ReferenceDataCache;
 import ru.yandex.practicum.filmorate.dto.GenreDto;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.mapper.GenreMapper;
 import ru.yandex.practicum.filmorate.model.Genre;
-import ru.yandex.practicum.filmorate.storage.GenreDbStorage;
 
 import java.util.Collection;
 
@@ -15,23 +15,30 @@ import java.util.Collection;
 @Service
 public class GenreService {
 
-    private final GenreDbStorage genreStorage;
+    private final ReferenceDataCache referenceDataCache;
 
     @Autowired
-    public GenreService(GenreDbStorage genreStorage) {
-        this.genreStorage = genreStorage;
+    public GenreService(ReferenceDataCache referenceDataCache) {
+        this.referenceDataCache = referenceDataCache;
+    }
+
+    // версия справочников, общая для жанров и рейтингов
+    public long getVersion() {
+        return referenceDataCache.getVersion();
     }
 
     public Collection<GenreDto> findAll() {
-        return genreStorage.findAll()
+        return referenceDataCache.getGenres()
                 .stream()
                 .map(GenreMapper::mapToGenreDto)
                 .toList();
     }
 
     public GenreDto findById(Integer id) {
-        Genre genre = genreStorage.findById(id)
-                .orElseThrow(() -> new NotFoundException(String.format("Жанр с id %d не найден", id)));
+        Genre genre = referenceDataCache.getGenre(id);
+        if (genre == null) {
+            throw new NotFoundException(String.format("Жанр с id %d не найден", id));
+        }
         return GenreMapper.mapToGenreDto(genre);
     }
 }
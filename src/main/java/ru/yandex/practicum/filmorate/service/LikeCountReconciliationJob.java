@@ -0,0 +1,54 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.storage.FilmDbStorage;
+
+// сверка films.likes_count с таблицей likes: при старте, по расписанию и через POST /admin/likes/reconcile
+@Slf4j
+@Component
+public class LikeCountReconciliationJob {
+
+    private final FilmDbStorage filmStorage;
+    private final FilmService filmService;
+    private final boolean reconcileOnStartup;
+
+    @Autowired
+    public LikeCountReconciliationJob(FilmDbStorage filmStorage,
+                                      FilmService filmService,
+                                      @Value("${filmorate.likes.reconcile-on-startup:true}") boolean reconcileOnStartup) {
+        this.filmStorage = filmStorage;
+        this.filmService = filmService;
+        this.reconcileOnStartup = reconcileOnStartup;
+    }
+
+    // рейтинг популярности FilmService уже построен по likes при создании сервиса, поэтому здесь только счетчики
+    @EventListener(ApplicationReadyEvent.class)
+    public void reconcileOnStartup() {
+        if (reconcileOnStartup) {
+            reconcileCounters();
+        }
+    }
+
+    @Scheduled(cron = "${filmorate.likes.reconcile-cron:-}")
+    public int reconcile() {
+        int fixed = reconcileCounters();
+        filmService.rebuildPopularityIndex();
+        return fixed;
+    }
+
+    private int reconcileCounters() {
+        int fixed = filmStorage.reconcileLikeCounts();
+        if (fixed > 0) {
+            log.warn("Счетчики лайков расходились с таблицей likes, исправлено фильмов: {}", fixed);
+        } else {
+            log.info("Счетчики лайков совпадают с таблицей likes");
+        }
+        return fixed;
+    }
+}
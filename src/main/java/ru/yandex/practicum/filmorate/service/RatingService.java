@@ -3,11 +3,11 @@ package ru.yandex.practicum.filmorate.service;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.cache.ReferenceDataCache;
 import ru.yandex.practicum.filmorate.dto.RatingDto;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.mapper.RatingMapper;
 import ru.yandex.practicum.filmorate.model.Rating;
-import ru.yandex.practicum.filmorate.storage.RatingDbStorage;
 
 import java.util.Collection;
 
@@ -15,23 +15,30 @@ import java.util.Collection;
 @Service
 public class RatingService {
 
-    private final RatingDbStorage ratingStorage;
+    private final ReferenceDataCache referenceDataCache;
 
     @Autowired
-    public RatingService(RatingDbStorage ratingStorage) {
-        this.ratingStorage = ratingStorage;
+    public RatingService(ReferenceDataCache referenceDataCache) {
+        this.referenceDataCache = referenceDataCache;
+    }
+
+    // версия справочников, общая для жанров и рейтингов
+    public long getVersion() {
+        return referenceDataCache.getVersion();
     }
 
     public Collection<RatingDto> findAll() {
-        return ratingStorage.findAll()
+        return referenceDataCache.getRatings()
                 .stream()
                 .map(RatingMapper::mapToRatingDto)
                 .toList();
     }
 
     public RatingDto findById(Integer id) {
-        Rating rating = ratingStorage.findById(id)
-                .orElseThrow(() -> new NotFoundException(String.format("Mpa с id %d не найден", id)));
+        Rating rating = referenceDataCache.getRating(id);
+        if (rating == null) {
+            throw new NotFoundException(String.format("Mpa с id %d не найден", id));
+        }
         return RatingMapper.mapToRatingDto(rating);
     }
 
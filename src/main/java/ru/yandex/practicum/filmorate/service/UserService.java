@@ -3,27 +3,50 @@ package ru.yandex.practicum.filmorate.service;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.dto.FriendSuggestionDto;
 import ru.yandex.practicum.filmorate.dto.NewUserRequest;
+import ru.yandex.practicum.filmorate.dto.PageDto;
 import ru.yandex.practicum.filmorate.dto.UpdateUserRequest;
 import ru.yandex.practicum.filmorate.dto.UserDto;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.index.FriendBitmapIndex;
+import ru.yandex.practicum.filmorate.index.FriendGraphIndex;
 import ru.yandex.practicum.filmorate.mapper.UserMapper;
 import ru.yandex.practicum.filmorate.model.User;
 import ru.yandex.practicum.filmorate.storage.UserStorage;
 
 import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 
 @Slf4j
 @Service
 public class UserService {
 
+    private static final int FRIENDSHIP_STRIPES = 64;
+
     private final UserStorage userStorage;
+    // граф дружбы в памяти: общие друзья считаются без самосоединения user_friends
+    private final FriendGraphIndex friendGraph = new FriendGraphIndex();
+    // тот же граф в сжатых битовых множествах: рекомендации друзей без обращения к базе
+    private final FriendBitmapIndex friendBitmaps = new FriendBitmapIndex();
+    // запись дружбы в базу и в оба индекса идет под блокировкой пары (полосой по меньшему id),
+    // иначе параллельные добавление и удаление одной пары применятся к индексам в другом порядке, чем к базе
+    private final Object[] friendshipLocks = new Object[FRIENDSHIP_STRIPES];
+    // перестроение графа ждет текущих изменений дружбы и не пропускает новые, пока не заменит индексы
+    private final ReadWriteLock friendGraphLock = new ReentrantReadWriteLock();
 
     @Autowired
     public UserService(@Qualifier("userDbStorage") UserStorage userStorage) {
         this.userStorage = userStorage;
+        for (int i = 0; i < friendshipLocks.length; i++) {
+            friendshipLocks[i] = new Object();
+        }
+        rebuildFriendGraph();
     }
 
     public Collection<UserDto> findAll() {
@@ -33,11 +56,30 @@ public class UserService {
                 .toList();
     }
 
+    // полная выгрузка пользователей: передаются по одному по мере чтения из базы
+    public void exportAll(Consumer<UserDto> action) {
+        userStorage.streamAll(user -> action.accept(UserMapper.mapToUserDto(user)));
+    }
+
+    public PageDto<UserDto> findPage(long afterId, int limit) {
+        // берем на одну запись больше, чтобы узнать, есть ли следующая страница
+        List<User> users = userStorage.findPage(afterId, limit + 1);
+        Long nextCursor = null;
+        if (users.size() > limit) {
+            users = users.subList(0, limit);
+            nextCursor = users.getLast().getId();
+        }
+        return new PageDto<>(users.stream()
+                .map(UserMapper::mapToUserDto)
+                .toList(), nextCursor);
+    }
+
     public UserDto create(NewUserRequest request) {
         if (request.getName() == null || request.getName().isBlank()) {
             request.setName(request.getLogin());
         }
         User user = userStorage.create(UserMapper.mapToUser(request));
+        friendGraph.addUser(user.getId());
         return UserMapper.mapToUserDto(user);
     }
 
@@ -61,22 +103,29 @@ public class UserService {
                 .orElseThrow(() -> new NotFoundException(String.format("Пользователь с id %d не найден", id)));
     }
 
+    // существование пользователей проверяет хранилище, и только если запись не удалась
     public void addFriend(Long id, Long friendId) {
         log.debug("Вызван метод addFriend id = {}, friendId = {}", id, friendId);
-        User user = userStorage.findById(id).orElseThrow(() ->
-                new NotFoundException("Пользователь с id = " + id + " не найден"));
-        User friend = userStorage.findById(friendId).orElseThrow(() ->
-                new NotFoundException("Пользователь с id = " + friendId + " не найден"));
-        userStorage.addFriend(id, friendId);
+        if (id.equals(friendId)) {
+            throw new ValidationException("Пользователь не может добавить в друзья самого себя");
+        }
+        changeFriendship(id, friendId, () -> {
+            userStorage.addFriend(id, friendId);
+            // как и в user_friends, дружба записывается в обе стороны
+            friendGraph.addFriend(id, friendId);
+            friendGraph.addFriend(friendId, id);
+            friendBitmaps.addFriend(id, friendId);
+            friendBitmaps.addFriend(friendId, id);
+        });
     }
 
     public void deleteFriend(Long id, Long friendId) {
         log.debug("Вызван метод deleteFriend id = {}, friendId = {}", id, friendId);
-        User user = userStorage.findById(id).orElseThrow(() ->
-                new NotFoundException("Пользователь с id = " + id + " не найден"));
-        User friend = userStorage.findById(friendId).orElseThrow(() ->
-                new NotFoundException("Пользователь с id = " + friendId + " не найден"));
-        userStorage.deleteFriend(id, friendId);
+        changeFriendship(id, friendId, () -> {
+            userStorage.deleteFriend(id, friendId);
+            friendGraph.removeFriend(id, friendId);
+            friendBitmaps.removeFriend(id, friendId);
+        });
     }
 
     public Collection<UserDto> getFriendsByUser(Long id) {
@@ -91,13 +140,58 @@ public class UserService {
 
     public Collection<UserDto> getCommonFriends(Long id, Long otherId) {
         log.debug("Вызван метод getCommonFriends id = {}, otherId = {}", id, otherId);
-        User user = userStorage.findById(id).orElseThrow(() ->
-                new NotFoundException("Пользователь с id = " + id + " не найден"));
-        User friend = userStorage.findById(otherId).orElseThrow(() ->
-                new NotFoundException("Пользователь с id = " + otherId + " не найден"));
-        Collection<User> commonFriends = userStorage.getCommonFriends(id, otherId);
-        return commonFriends.stream()
+        checkUserKnown(id);
+        checkUserKnown(otherId);
+        long[] commonIds = friendGraph.commonFriends(id, otherId);
+        if (commonIds.length == 0) {
+            return List.of();
+        }
+        return userStorage.findAllByIds(Arrays.stream(commonIds).boxed().toList())
+                .stream()
                 .map(UserMapper::mapToUserDto)
                 .toList();
     }
+
+    public List<FriendSuggestionDto> getFriendSuggestions(Long id, int limit) {
+        log.debug("Вызван метод getFriendSuggestions id = {}, limit = {}", id, limit);
+        checkUserKnown(id);
+        return friendBitmaps.suggestions(id, limit)
+                .stream()
+                .map(suggestion -> new FriendSuggestionDto(suggestion.userId(), suggestion.mutualFriends()))
+                .toList();
+    }
+
+    // перестраивает граф дружбы по базе: при старте, по расписанию и через POST /admin/friends/rebuild,
+    // например после массовой загрузки мимо приложения
+    @Scheduled(cron = "${filmorate.friends.rebuild-cron:-}")
+    public void rebuildFriendGraph() {
+        log.debug("Перестроение графа дружбы");
+        friendGraphLock.writeLock().lock();
+        try {
+            Map<Long, long[]> friendLists = userStorage.getFriendLists();
+            friendGraph.rebuild(friendLists);
+            friendBitmaps.rebuild(friendLists);
+        } finally {
+            friendGraphLock.writeLock().unlock();
+        }
+    }
+
+    private void changeFriendship(long id, long friendId, Runnable change) {
+        Object pairLock = friendshipLocks[Math.floorMod(Long.hashCode(Math.min(id, friendId)), FRIENDSHIP_STRIPES)];
+        friendGraphLock.readLock().lock();
+        try {
+            synchronized (pairLock) {
+                change.run();
+            }
+        } finally {
+            friendGraphLock.readLock().unlock();
+        }
+    }
+
+    // в графе есть все пользователи, в том числе без друзей
+    void checkUserKnown(Long id) {
+        if (!friendGraph.contains(id)) {
+            throw new NotFoundException("Пользователь с id = " + id + " не найден");
+        }
+    }
 }
@@ -4,57 +4,133 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
+import ru.yandex.practicum.filmorate.budget.QueryCounter;
 import ru.yandex.practicum.filmorate.exception.InternalServerException;
+import ru.yandex.practicum.filmorate.metrics.SqlMetrics;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.Statement;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
 
 @RequiredArgsConstructor(onConstructor_ = @Autowired)
 public class BaseRepository<T> {
+    // максимальное число параметров в одном IN (...), большие списки режутся на части
+    protected static final int IN_CLAUSE_CHUNK_SIZE = 500;
+    // сколько строк драйвер забирает за раз при потоковом чтении
+    protected static final int STREAM_FETCH_SIZE = 500;
+
     protected final JdbcTemplate jdbc;
     protected final RowMapper<T> mapper;
 
+    private final String repositoryName = getClass().getSimpleName();
+    // имя запроса для метрик по его тексту: константы *_QUERY хранилища и собранные из них IN-запросы
+    private final Map<String, String> queryNames = new ConcurrentHashMap<>(queryConstants(getClass()));
+    private SqlMetrics sqlMetrics;
+
+    @Autowired(required = false)
+    public void setSqlMetrics(SqlMetrics sqlMetrics) {
+        this.sqlMetrics = sqlMetrics;
+    }
+
     protected Optional<T> findOne(String query, Object... params) {
-        try {
-            T result = jdbc.queryForObject(query, mapper, params);
-            return Optional.ofNullable(result);
-        } catch (EmptyResultDataAccessException ignored) {
-            return Optional.empty();
-        }
+        return measure(query, () -> {
+            try {
+                T result = jdbc.queryForObject(query, mapper, params);
+                return Optional.ofNullable(result);
+            } catch (EmptyResultDataAccessException ignored) {
+                return Optional.empty();
+            }
+        }, result -> result.isPresent() ? 1 : 0);
     }
 
     protected List<T> findMany(String query, Object... params) {
-        return jdbc.query(query, mapper, params);
+        return measure(query, () -> jdbc.query(query, mapper, params), List::size);
+    }
+
+    // обход результата без сборки в список, например для заполнения Map
+    protected void query(String query, RowCallbackHandler handler, Object... params) {
+        long[] rows = new long[1];
+        RowCallbackHandler counting = rs -> {
+            rows[0]++;
+            handler.processRow(rs);
+        };
+        measure(query, () -> {
+            jdbc.query(query, counting, params);
+            return rows;
+        }, result -> result[0]);
+    }
+
+    // читает строки по мере обхода результата, не собирая его в список; поток обязательно закрывать
+    protected <R> Stream<R> stream(String query, RowMapper<R> rowMapper, Object... params) {
+        QueryCounter.increment();
+        long started = System.nanoTime();
+        Stream<R> rows = jdbc.queryForStream(connection -> {
+            PreparedStatement ps = connection
+                    .prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(STREAM_FETCH_SIZE);
+            for (int idx = 0; idx < params.length; idx++) {
+                ps.setObject(idx + 1, params[idx]);
+            }
+            return ps;
+        }, rowMapper);
+        if (sqlMetrics == null) {
+            return rows;
+        }
+        // время потокового запроса считается до закрытия потока, то есть вместе с обходом всех строк
+        long[] count = new long[1];
+        return rows.peek(row -> count[0]++)
+                .onClose(() -> sqlMetrics.record(repositoryName, queryName(query),
+                        System.nanoTime() - started, count[0]));
     }
 
     protected boolean delete(String query, Object... params) {
-        int rowsDeleted = jdbc.update(query, params);
+        int rowsDeleted = updateRows(query, params);
         return rowsDeleted > 0;
     }
 
     protected void update(String query, Object... params) {
-        int rowsUpdated = jdbc.update(query, params);
+        int rowsUpdated = updateRows(query, params);
         if (rowsUpdated == 0) {
             throw new InternalServerException("Не удалось обновить данные");
         }
     }
 
+    // изменяет все подходящие строки и возвращает их число, ноль строк не считается ошибкой
+    protected int updateRows(String query, Object... params) {
+        return measure(query, () -> jdbc.update(query, params), Integer::longValue);
+    }
+
+    // один пакетный запрос (JDBC batch) вместо отдельного запроса на каждую строку
+    protected int[] batchUpdate(String query, List<Object[]> batchParams) {
+        if (batchParams.isEmpty()) {
+            return new int[0];
+        }
+        return measure(query, () -> jdbc.batchUpdate(query, batchParams),
+                result -> Arrays.stream(result).filter(rows -> rows > 0).sum());
+    }
+
     protected long insert(String query, boolean expectGeneratedKey, Object... params) {
         if (expectGeneratedKey) {
             GeneratedKeyHolder keyHolder = new GeneratedKeyHolder();
 
-            jdbc.update(connection -> {
+            measure(query, () -> jdbc.update(connection -> {
                 PreparedStatement ps = connection
                         .prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
                 for (int idx = 0; idx < params.length; idx++) {
                     ps.setObject(idx + 1, params[idx]);
                 }
                 return ps;
-            }, keyHolder);
+            }, keyHolder), Integer::longValue);
 
             Long id = keyHolder.getKeyAs(Long.class);
 
@@ -65,11 +141,60 @@ public class BaseRepository<T> {
                 throw new InternalServerException("Не удалось сохранить данные");
             }
         } else {
-            int rowsCreated = jdbc.update(query, params);
+            int rowsCreated = updateRows(query, params);
             if (rowsCreated == 0) {
                 throw new InternalServerException("Не удалось обновить данные");
             }
             return rowsCreated;
         }
     }
-}
\ No newline at end of file
+
+    // подставляет в шаблон запроса (%s) нужное количество плейсхолдеров для IN (...)
+    protected String withPlaceholders(String query, int count) {
+        String result = String.format(query, String.join(", ", Collections.nCopies(count, "?")));
+        // в метриках собранный запрос учитывается под именем шаблона
+        queryNames.computeIfAbsent(result, sql -> queryName(query));
+        return result;
+    }
+
+    // разбивает список идентификаторов на части не больше заданного размера
+    protected static <E> List<List<E>> partition(List<E> items, int size) {
+        List<List<E>> chunks = new ArrayList<>();
+        for (int from = 0; from < items.size(); from += size) {
+            chunks.add(items.subList(from, Math.min(from + size, items.size())));
+        }
+        return chunks;
+    }
+
+    private <R> R measure(String query, Supplier<R> call, ToLongFunction<R> rows) {
+        QueryCounter.increment();
+        if (sqlMetrics == null) {
+            return call.get();
+        }
+        long started = System.nanoTime();
+        R result = call.get();
+        sqlMetrics.record(repositoryName, queryName(query), System.nanoTime() - started, rows.applyAsLong(result));
+        return result;
+    }
+
+    private String queryName(String query) {
+        return queryNames.getOrDefault(query, repositoryName + ".UNNAMED_QUERY");
+    }
+
+    private static Map<String, String> queryConstants(Class<?> repository) {
+        Map<String, String> names = new HashMap<>();
+        for (Field field : repository.getDeclaredFields()) {
+            int modifiers = field.getModifiers();
+            if (Modifier.isStatic(modifiers) && Modifier.isFinal(modifiers)
+                    && field.getType() == String.class && field.getName().endsWith("_QUERY")) {
+                try {
+                    field.setAccessible(true);
+                    names.put((String) field.get(null), repository.getSimpleName() + "." + field.getName());
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException("Не удалось прочитать " + field, e);
+                }
+            }
+        }
+        return names;
+    }
+}
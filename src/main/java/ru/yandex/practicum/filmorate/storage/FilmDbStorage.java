@@ -1,47 +1,102 @@
 package ru.yandex.practicum.filmorate.storage;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Like;
+import ru.yandex.practicum.filmorate.model.LikeStatus;
 
-import java.util.Collection;
-import java.util.Optional;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Slf4j
 @Repository
 public class FilmDbStorage extends BaseRepository<Film> implements FilmStorage {
 
     private static final String FIND_ALL_QUERY = """
-    SELECT f.id, f.name, f.description, f.release_date, f.duration, f.rating_id, r.name AS mpa_name
+    SELECT f.id, f.name, f.description, f.release_date, f.duration, f.rating_id, r.name AS mpa_name, f.version
     FROM films f INNER JOIN ratings r on f.rating_id = r.id""";
+    // жанры присоединяются в том же запросе: строки одного фильма идут подряд;
+    // сортировка только по f.id идет по первичному ключу без отдельного шага сортировки,
+    // так что первые строки доступны до того, как запрос прочитает всю таблицу
+    private static final String FIND_ALL_WITH_GENRES_QUERY = """
+    SELECT f.id, f.name, f.description, f.release_date, f.duration, f.rating_id, r.name AS mpa_name, f.version,
+    g.id AS genre_id, g.name AS genre_name
+    FROM films f
+    INNER JOIN ratings r ON f.rating_id = r.id
+    LEFT JOIN film_genres fg ON f.id = fg.film_id
+    LEFT JOIN genres g ON fg.genre_id = g.id
+    ORDER BY f.id""";
+    private static final String FIND_PAGE_QUERY = """
+    SELECT f.id, f.name, f.description, f.release_date, f.duration, f.rating_id, r.name AS mpa_name, f.version
+    FROM films f INNER JOIN ratings r on f.rating_id = r.id WHERE f.id > ? ORDER BY f.id LIMIT ?""";
     private static final String FIND_BY_ID_QUERY = """
-    SELECT f.id, f.name, f.description, f.release_date, f.duration, f.rating_id, r.name AS mpa_name
+    SELECT f.id, f.name, f.description, f.release_date, f.duration, f.rating_id, r.name AS mpa_name, f.version
     FROM films f INNER JOIN ratings r on f.rating_id = r.id WHERE f.id = ?""";
+    private static final String FIND_ALL_BY_IDS_QUERY = """
+    SELECT f.id, f.name, f.description, f.release_date, f.duration, f.rating_id, r.name AS mpa_name, f.version
+    FROM films f INNER JOIN ratings r on f.rating_id = r.id WHERE f.id IN (%s)""";
     private static final String INSERT_QUERY = "INSERT INTO films(name, description, release_date, duration, rating_id)" +
             "VALUES (?, ?, ?, ?, ?)";
     private static final String UPDATE_QUERY = """
     UPDATE films SET name = ?, description = ?, release_date = ?, duration = ?,
-    rating_id = ? WHERE id = ?""";
-    private static final String INSERT_LIKE_QUERY = "INSERT INTO likes(film_id, user_id)" +
-            "VALUES (?, ?)";
-    private static final String DELETE_LIKE_QUERY
-            = "DELETE FROM likes WHERE film_id = ? AND user_id = ?";
+    rating_id = ?, version = version + 1 WHERE id = ?""";
+    // только первичный ключ: для проверки If-None-Match строка фильма целиком не нужна
+    private static final String FIND_VERSION_QUERY = "SELECT version FROM films WHERE id = ?";
+    // лайк и счетчик за одно обращение: вложенный INSERT из FINAL TABLE выполняется, только если фильм есть,
+    // и вставляет строку, только если лайка еще нет, поэтому запрос изменяет строку фильма ровно тогда,
+    // когда лайк добавлен; несуществующий пользователь дает нарушение внешнего ключа
+    private static final String ADD_LIKE_QUERY = """
+    UPDATE films SET likes_count = likes_count + 1, version = version + 1
+    WHERE id = ? AND EXISTS (SELECT 1 FROM FINAL TABLE (
+        INSERT INTO likes (film_id, user_id) SELECT ?, ?
+        WHERE NOT EXISTS (SELECT 1 FROM likes WHERE film_id = ? AND user_id = ?)))""";
+    private static final String REMOVE_LIKE_QUERY = """
+    UPDATE films SET likes_count = likes_count - 1, version = version + 1
+    WHERE id = ? AND EXISTS (SELECT 1 FROM OLD TABLE (
+        DELETE FROM likes WHERE film_id = ? AND user_id = ?))""";
+    // нужен, только когда лайк не изменился: отличает повтор от несуществующего фильма или пользователя
+    private static final String FIND_LIKE_TARGETS_QUERY = """
+    SELECT EXISTS (SELECT 1 FROM films WHERE id = ?) AS film_exists,
+    EXISTS (SELECT 1 FROM users WHERE id = ?) AS user_exists""";
+    // для пакетной загрузки: существующие фильмы и пользователи среди переданных id
+    private static final String FIND_EXISTING_FILM_IDS_QUERY = "SELECT id FROM films WHERE id IN (%s)";
+    private static final String FIND_EXISTING_USER_IDS_QUERY = "SELECT id FROM users WHERE id IN (%s)";
+    // вставляет лайк, только если его еще нет; в пакете число измененных строк отличает новый лайк от повтора
+    private static final String INSERT_LIKE_IF_ABSENT_QUERY = """
+    INSERT INTO likes (film_id, user_id) SELECT ?, ?
+    WHERE NOT EXISTS (SELECT 1 FROM likes WHERE film_id = ? AND user_id = ?)""";
+    private static final String ADD_LIKES_COUNT_QUERY = """
+    UPDATE films SET likes_count = likes_count + ?, version = version + 1 WHERE id = ?""";
+    // likes_count поддерживается при каждом лайке, поэтому топ читается по индексу films_likes_count_idx
     private static final String FIND_POPULAR_QUERY = """
-    SELECT f.id, f.name, f.description, f.release_date, f.duration, f.rating_id, r.name AS mpa_name,
-    COUNT(l.user_id) AS likes_count
+    SELECT f.id, f.name, f.description, f.release_date, f.duration, f.rating_id, r.name AS mpa_name, f.version
     FROM
         films f
     INNER JOIN ratings r ON f.rating_id = r.id
-    LEFT JOIN
-        likes l ON f.id = l.film_id
-    GROUP BY
-        f.id, r.name
     ORDER BY
-        likes_count DESC
+        f.likes_count DESC, f.id
     LIMIT ?""";
-
+    private static final String FIND_LIKE_COUNTS_QUERY = """
+    SELECT f.id, COUNT(l.user_id) AS likes_count
+    FROM films f LEFT JOIN likes l ON f.id = l.film_id
+    GROUP BY f.id""";
+    // порядок первичного ключа: лайки каждого пользователя идут подряд и уже отсортированы по фильму
+    private static final String FIND_ALL_LIKES_QUERY = "SELECT user_id, film_id FROM likes ORDER BY user_id, film_id";
+    private static final String RECONCILE_LIKES_COUNT_QUERY = """
+    UPDATE films f SET likes_count = (SELECT COUNT(*) FROM likes l WHERE l.film_id = f.id), version = version + 1
+    WHERE f.likes_count <> (SELECT COUNT(*) FROM likes l WHERE l.film_id = f.id)""";
 
     public FilmDbStorage(JdbcTemplate jdbc, RowMapper<Film> mapper) {
         super(jdbc, mapper);
@@ -83,28 +138,209 @@ public class FilmDbStorage extends BaseRepository<Film> implements FilmStorage {
         return findMany(FIND_ALL_QUERY);
     }
 
+    @Override
+    public void streamAll(Consumer<Film> action) {
+        try (Stream<Film> rows = stream(FIND_ALL_WITH_GENRES_QUERY, this::mapFilmWithGenre)) {
+            // склеиваем подряд идущие строки одного фильма, отдаем фильм, когда начался следующий
+            Film[] current = new Film[1];
+            rows.forEach(row -> {
+                if (current[0] != null && current[0].getId().equals(row.getId())) {
+                    current[0].getGenres().addAll(row.getGenres());
+                    return;
+                }
+                if (current[0] != null) {
+                    action.accept(sortGenres(current[0]));
+                }
+                current[0] = row;
+            });
+            if (current[0] != null) {
+                action.accept(sortGenres(current[0]));
+            }
+        }
+    }
+
+    @Override
+    public List<Film> findPage(long afterId, int limit) {
+        return findMany(FIND_PAGE_QUERY, afterId, limit);
+    }
+
     @Override
     public Optional<Film> findById(Long id) {
         return findOne(FIND_BY_ID_QUERY, id);
     }
 
     @Override
-    public void addLikeByUser(Long filmId, Long userId) {
-        long id = insert(
-                INSERT_LIKE_QUERY,
-                false,
-                filmId,
-                userId
-        );
+    public Optional<Long> findVersion(Long id) {
+        Long[] version = new Long[1];
+        query(FIND_VERSION_QUERY, rs -> {
+            version[0] = rs.getLong("version");
+        }, id);
+        return Optional.ofNullable(version[0]);
     }
 
     @Override
-    public void deleteLikeByUser(Long filmId, Long userId) {
-        delete(DELETE_LIKE_QUERY, filmId, userId);
+    public List<Film> findAllByIds(Collection<Long> ids) {
+        List<Long> distinctIds = new ArrayList<>(new LinkedHashSet<>(ids));
+        Map<Long, Film> filmsById = new HashMap<>();
+        for (List<Long> chunk : partition(distinctIds, IN_CLAUSE_CHUNK_SIZE)) {
+            findMany(withPlaceholders(FIND_ALL_BY_IDS_QUERY, chunk.size()), chunk.toArray())
+                    .forEach(film -> filmsById.put(film.getId(), film));
+        }
+        return distinctIds.stream()
+                .map(filmsById::get)
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
+    @Override
+    public boolean addLikeByUser(Long filmId, Long userId) {
+        try {
+            if (updateRows(ADD_LIKE_QUERY, filmId, filmId, userId, filmId, userId) > 0) {
+                return true;
+            }
+        } catch (DuplicateKeyException e) {
+            // такой же лайк параллельно вставил другой запрос
+            return false;
+        } catch (DataIntegrityViolationException e) {
+            checkLikeTargets(filmId, userId);
+            throw e;
+        }
+        checkLikeTargets(filmId, userId);
+        return false;
+    }
+
+    @Override
+    public boolean deleteLikeByUser(Long filmId, Long userId) {
+        if (updateRows(REMOVE_LIKE_QUERY, filmId, filmId, userId) > 0) {
+            return true;
+        }
+        checkLikeTargets(filmId, userId);
+        return false;
+    }
+
+    // на весь пакет: поиск фильмов и пользователей по IN, одна пакетная вставка лайков и одна правка счетчиков
+    @Override
+    @Transactional
+    public List<LikeStatus> addLikes(List<Like> likes) {
+        Set<Long> films = findExistingIds(FIND_EXISTING_FILM_IDS_QUERY, likes.stream().map(Like::getFilmId));
+        Set<Long> users = findExistingIds(FIND_EXISTING_USER_IDS_QUERY, likes.stream().map(Like::getUserId));
+        List<LikeStatus> statuses = new ArrayList<>(likes.size());
+        List<Object[]> inserts = new ArrayList<>();
+        for (Like like : likes) {
+            if (!films.contains(like.getFilmId())) {
+                statuses.add(LikeStatus.UNKNOWN_FILM);
+            } else if (!users.contains(like.getUserId())) {
+                statuses.add(LikeStatus.UNKNOWN_USER);
+            } else {
+                statuses.add(null);
+                inserts.add(new Object[]{like.getFilmId(), like.getUserId(), like.getFilmId(), like.getUserId()});
+            }
+        }
+
+        int[] inserted = batchUpdate(INSERT_LIKE_IF_ABSENT_QUERY, inserts);
+        Map<Long, Integer> addedByFilm = new HashMap<>();
+        int next = 0;
+        for (int i = 0; i < statuses.size(); i++) {
+            if (statuses.get(i) == null) {
+                // повтор внутри пакета тоже получает 0: первая вставка уже видна в этой транзакции
+                boolean added = inserted[next++] > 0;
+                statuses.set(i, added ? LikeStatus.INSERTED : LikeStatus.DUPLICATE);
+                if (added) {
+                    addedByFilm.merge(likes.get(i).getFilmId(), 1, Integer::sum);
+                }
+            }
+        }
+        batchUpdate(ADD_LIKES_COUNT_QUERY, addedByFilm.entrySet().stream()
+                .map(entry -> new Object[]{entry.getValue(), entry.getKey()})
+                .toList());
+        return statuses;
+    }
+
+    // снимает лайки пакетом вместе со счетчиками; true для каждого лайка, который был и удален
+    @Transactional
+    public List<Boolean> removeLikes(List<Like> likes) {
+        int[] removed = batchUpdate(REMOVE_LIKE_QUERY, likes.stream()
+                .map(like -> new Object[]{like.getFilmId(), like.getFilmId(), like.getUserId()})
+                .toList());
+        return Arrays.stream(removed)
+                .mapToObj(rows -> rows > 0)
+                .toList();
     }
 
     @Override
     public Collection<Film> getPopularFilms(int count) {
         return findMany(FIND_POPULAR_QUERY, count);
     }
+
+    @Override
+    public Map<Long, Integer> getLikeCounts() {
+        Map<Long, Integer> likeCounts = new HashMap<>();
+        query(FIND_LIKE_COUNTS_QUERY, rs -> {
+            likeCounts.put(rs.getLong("id"), rs.getInt("likes_count"));
+        });
+        return likeCounts;
+    }
+
+    @Override
+    public Map<Long, long[]> getLikedFilms() {
+        Map<Long, long[]> likedFilms = new HashMap<>();
+        IdListCollector collector = new IdListCollector(likedFilms);
+        query(FIND_ALL_LIKES_QUERY, collector);
+        collector.finish();
+        return likedFilms;
+    }
+
+    private Film mapFilmWithGenre(ResultSet rs, int rowNum) throws SQLException {
+        Film film = mapper.mapRow(rs, rowNum);
+        Set<Genre> genres = new LinkedHashSet<>();
+        int genreId = rs.getInt("genre_id");
+        if (!rs.wasNull()) {
+            Genre genre = new Genre();
+            genre.setId(genreId);
+            genre.setName(rs.getString("genre_name"));
+            genres.add(genre);
+        }
+        film.setGenres(genres);
+        return film;
+    }
+
+    private static Film sortGenres(Film film) {
+        if (film.getGenres().size() > 1) {
+            film.setGenres(film.getGenres().stream()
+                    .sorted(Comparator.comparing(Genre::getId))
+                    .collect(Collectors.toCollection(LinkedHashSet::new)));
+        }
+        return film;
+    }
+
+    // пересчитывает likes_count по таблице likes, возвращает число исправленных фильмов
+    @Transactional
+    public int reconcileLikeCounts() {
+        return updateRows(RECONCILE_LIKES_COUNT_QUERY);
+    }
+
+    private Set<Long> findExistingIds(String query, Stream<Long> ids) {
+        List<Long> distinctIds = ids.filter(Objects::nonNull).distinct().toList();
+        Set<Long> existing = new HashSet<>();
+        for (List<Long> chunk : partition(distinctIds, IN_CLAUSE_CHUNK_SIZE)) {
+            query(withPlaceholders(query, chunk.size()), rs -> {
+                existing.add(rs.getLong("id"));
+            }, chunk.toArray());
+        }
+        return existing;
+    }
+
+    private void checkLikeTargets(Long filmId, Long userId) {
+        boolean[] exists = new boolean[2];
+        query(FIND_LIKE_TARGETS_QUERY, rs -> {
+            exists[0] = rs.getBoolean("film_exists");
+            exists[1] = rs.getBoolean("user_exists");
+        }, filmId, userId);
+        if (!exists[0]) {
+            throw new NotFoundException("Фильм с id = " + filmId + " не найден");
+        }
+        if (!exists[1]) {
+            throw new NotFoundException("Пользователь с id = " + userId + " не найден");
+        }
+    }
 }
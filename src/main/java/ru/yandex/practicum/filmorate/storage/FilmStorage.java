@@ -1,9 +1,14 @@
 package ru.yandex.practicum.filmorate.storage;
 
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Like;
+import ru.yandex.practicum.filmorate.model.LikeStatus;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 public interface FilmStorage {
 
@@ -13,12 +18,35 @@ public interface FilmStorage {
 
     Collection<Film> findAll();
 
+    // передает все фильмы вместе с жанрами по одному, не собирая каталог в памяти
+    void streamAll(Consumer<Film> action);
+
+    // не больше limit фильмов с id больше afterId, по возрастанию id
+    List<Film> findPage(long afterId, int limit);
+
     Optional<Film> findById(Long id);
 
-    void addLikeByUser(Long filmId, Long userId);
+    // версия фильма без чтения самой записи; меняется при изменении фильма, его жанров и лайков
+    Optional<Long> findVersion(Long id);
+
+    // фильмы в порядке переданных id, отсутствующие id пропускаются
+    List<Film> findAllByIds(Collection<Long> ids);
+
+    // возвращает true, если лайк добавлен
+    boolean addLikeByUser(Long filmId, Long userId);
 
-    void deleteLikeByUser(Long filmId, Long userId);
+    // возвращает true, если лайк был и удален
+    boolean deleteLikeByUser(Long filmId, Long userId);
+
+    // добавляет лайки пакетом, результат для каждого лайка в порядке переданных
+    List<LikeStatus> addLikes(List<Like> likes);
 
     Collection<Film> getPopularFilms(int count);
 
+    // количество лайков каждого фильма, включая фильмы без лайков
+    Map<Long, Integer> getLikeCounts();
+
+    // для каждого пользователя с лайками id лайкнутых фильмов по возрастанию
+    Map<Long, long[]> getLikedFilms();
+
 }
@@ -6,8 +6,7 @@ import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
 import ru.yandex.practicum.filmorate.model.Genre;
 
-import java.util.Collection;
-import java.util.Optional;
+import java.util.*;
 
 @Slf4j
 @Repository
@@ -20,10 +19,17 @@ public class GenreDbStorage extends BaseRepository<Genre> implements GenreStorag
     INNER JOIN film_genres fg ON g.id = fg.genre_id WHERE fg.film_id = ?
     ORDER BY
         g.id""";
+    private static final String FIND_ALL_BY_FILM_IDS_QUERY = """
+    SELECT fg.film_id, g.id, g.name FROM film_genres fg
+    INNER JOIN genres g ON g.id = fg.genre_id WHERE fg.film_id IN (%s)
+    ORDER BY
+        fg.film_id, g.id""";
     private static final String INSERT_INTO_FILM_GENRES_QUERY =
             "INSERT INTO film_genres (film_id, genre_id) VALUES (?, ?)";
     private static final String DELETE_FROM_FILM_GENRES_QUERY =
             "DELETE FROM film_genres WHERE film_id = ?";
+    private static final String DELETE_FILM_GENRE_QUERY =
+            "DELETE FROM film_genres WHERE film_id = ? AND genre_id = ?";
 
     public GenreDbStorage(JdbcTemplate jdbc, RowMapper<Genre> mapper) {
         super(jdbc, mapper);
@@ -47,13 +53,45 @@ public class GenreDbStorage extends BaseRepository<Genre> implements GenreStorag
                 genreId);
     }
 
+    @Override
+    public void createFilmGenres(long filmId, Collection<Integer> genreIds) {
+        batchUpdate(INSERT_INTO_FILM_GENRES_QUERY, toBatchParams(filmId, genreIds));
+    }
+
     @Override
     public void deleteFilmGenres(long filmId) {
         delete(DELETE_FROM_FILM_GENRES_QUERY, filmId);
     }
 
+    @Override
+    public void deleteFilmGenres(long filmId, Collection<Integer> genreIds) {
+        batchUpdate(DELETE_FILM_GENRE_QUERY, toBatchParams(filmId, genreIds));
+    }
+
     @Override
     public Collection<Genre> findAllByFilmId(Long filmId) {
         return findMany(FIND_ALL_BY_FILM_ID_QUERY, filmId);
     }
+
+    @Override
+    public Map<Long, Set<Genre>> findAllByFilmIds(Collection<Long> filmIds) {
+        Map<Long, Set<Genre>> genresByFilm = new HashMap<>();
+        List<Long> ids = new ArrayList<>(new LinkedHashSet<>(filmIds));
+        // один запрос на каждые IN_CLAUSE_CHUNK_SIZE фильмов, а не на каждый фильм
+        for (List<Long> chunk : partition(ids, IN_CLAUSE_CHUNK_SIZE)) {
+            query(withPlaceholders(FIND_ALL_BY_FILM_IDS_QUERY, chunk.size()),
+                    rs -> {
+                        genresByFilm.computeIfAbsent(rs.getLong("film_id"), id -> new LinkedHashSet<>())
+                                .add(mapper.mapRow(rs, rs.getRow()));
+                    },
+                    chunk.toArray());
+        }
+        return genresByFilm;
+    }
+
+    private static List<Object[]> toBatchParams(long filmId, Collection<Integer> genreIds) {
+        return genreIds.stream()
+                .map(genreId -> new Object[]{filmId, genreId})
+                .toList();
+    }
 }
@@ -3,7 +3,9 @@ package ru.yandex.practicum.filmorate.storage;
 import ru.yandex.practicum.filmorate.model.Genre;
 
 import java.util.Collection;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 public interface GenreStorage {
 
@@ -13,8 +15,14 @@ public interface GenreStorage {
 
     void createFilmGenres(long filmId, int genreId);
 
+    void createFilmGenres(long filmId, Collection<Integer> genreIds);
+
     void deleteFilmGenres(long filmId);
 
+    void deleteFilmGenres(long filmId, Collection<Integer> genreIds);
+
     Collection<Genre> findAllByFilmId(Long filmId);
 
+    Map<Long, Set<Genre>> findAllByFilmIds(Collection<Long> filmIds);
+
 }
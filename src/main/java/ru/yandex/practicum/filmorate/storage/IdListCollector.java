@@ -0,0 +1,42 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Map;
+
+// собирает пары (id владельца, id связанной записи) в массивы по владельцу; строки должны идти
+// в порядке первичного ключа, после последней нужно вызвать finish
+class IdListCollector implements RowCallbackHandler {
+    private final Map<Long, long[]> idLists;
+    private long ownerId;
+    private long[] ids = new long[16];
+    private int size;
+
+    IdListCollector(Map<Long, long[]> idLists) {
+        this.idLists = idLists;
+    }
+
+    // первый столбец — владелец, второй — связанная запись
+    @Override
+    public void processRow(ResultSet rs) throws SQLException {
+        long rowOwnerId = rs.getLong(1);
+        if (rowOwnerId != ownerId) {
+            finish();
+            ownerId = rowOwnerId;
+        }
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+        ids[size++] = rs.getLong(2);
+    }
+
+    void finish() {
+        if (size > 0) {
+            idLists.put(ownerId, Arrays.copyOf(ids, size));
+            size = 0;
+        }
+    }
+}
@@ -1,33 +1,74 @@
 package ru.yandex.practicum.filmorate.storage;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
+import ru.yandex.practicum.filmorate.index.PopularityIndex;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Like;
+import ru.yandex.practicum.filmorate.model.LikeStatus;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 @Slf4j
 @Component
 public class InMemoryFilmStorage implements FilmStorage {
 
-    private final Map<Long, Film> films = new HashMap<>();
+    // записи по возрастанию id, что нужно для постраничной выдачи; запросы обращаются к хранилищу параллельно
+    private final NavigableMap<Long, Film> films = new ConcurrentSkipListMap<>();
+    private final AtomicLong lastId = new AtomicLong();
+    // версии не сохраняются между запусками, поэтому отсчет идет от времени старта: прежние ETag не повторятся
+    private final AtomicLong lastVersion = new AtomicLong(System.currentTimeMillis() * 1000);
+    private final PopularityIndex popularity = new PopularityIndex();
+    // нужно только для проверки пользователей при лайках
+    private final UserStorage userStorage;
+    private volatile MemoryJournal journal = MemoryJournal.NONE;
+
+    @Autowired
+    public InMemoryFilmStorage(@Qualifier("inMemoryUserStorage") UserStorage userStorage) {
+        this.userStorage = userStorage;
+    }
+
+    public void setJournal(MemoryJournal journal) {
+        this.journal = journal;
+    }
 
     @Override
     public Film create(Film film) {
-        // формируем дополнительные данные
-        film.setId(getNextId());
-        // сохраняем нового пользователя в памяти приложения
-        films.put(film.getId(), film);
-        log.info("Создан фильм {}", film);
-        return film;
+        return journal.mutate(() -> {
+            // формируем дополнительные данные
+            film.setId(lastId.incrementAndGet());
+            film.setVersion(lastVersion.incrementAndGet());
+            // пока фильма нет в хранилище, запись о нем в журнале не обгонит запись о лайке
+            journal.filmCreated(film);
+            // сохраняем новый фильм в памяти приложения
+            films.put(film.getId(), film);
+            popularity.add(film.getId(), film.getLikes().size());
+            log.info("Создан фильм {}", film);
+            return film;
+        });
     }
 
     @Override
     public Film update(Film newFilm) {
-        // проверяем необходимые условия
-        if (films.containsKey(newFilm.getId())) {
-            Film oldFilm = films.get(newFilm.getId());
+        Film oldFilm = films.get(newFilm.getId());
+        if (oldFilm != null) {
+            journal.mutate(() -> updateFields(oldFilm, newFilm));
+            log.info("Фильм {} обновлен", oldFilm);
+            return oldFilm;
+        }
+        log.warn("Фильм с id = {} не найден", newFilm.getId());
+        throw new NotFoundException("Фильм с id = " + newFilm.getId() + " не найден");
+    }
+
+    private Film updateFields(Film oldFilm, Film newFilm) {
+        // одновременные обновления одной записи идут по очереди
+        synchronized (oldFilm) {
             if (newFilm.getReleaseDate() != null) {
                 oldFilm.setReleaseDate(newFilm.getReleaseDate());
             }
@@ -40,11 +81,10 @@ public class InMemoryFilmStorage implements FilmStorage {
             if (newFilm.getDescription() != null) {
                 oldFilm.setDescription(newFilm.getDescription());
             }
-            log.info("Фильм {} обновлен", oldFilm);
-            return oldFilm;
+            oldFilm.setVersion(lastVersion.incrementAndGet());
+            journal.filmUpdated(oldFilm);
         }
-        log.warn("Фильм с id = {} не найден", newFilm.getId());
-        throw new NotFoundException("Фильм с id = " + newFilm.getId() + " не найден");
+        return oldFilm;
     }
 
     @Override
@@ -52,45 +92,163 @@ public class InMemoryFilmStorage implements FilmStorage {
         return films.values();
     }
 
+    @Override
+    public void streamAll(Consumer<Film> action) {
+        films.values().forEach(action);
+    }
+
+    @Override
+    public List<Film> findPage(long afterId, int limit) {
+        return films.tailMap(afterId, false)
+                .values()
+                .stream()
+                .limit(limit)
+                .toList();
+    }
+
     @Override
     public Optional<Film> findById(Long id) {
         return Optional.ofNullable(films.get(id));
     }
 
     @Override
-    public void addLikeByUser(Long filmId, Long userId) {
+    public Optional<Long> findVersion(Long id) {
+        return findById(id).map(Film::getVersion);
+    }
+
+    @Override
+    public List<Film> findAllByIds(Collection<Long> ids) {
+        return ids.stream()
+                .distinct()
+                .map(films::get)
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
+    @Override
+    public boolean addLikeByUser(Long filmId, Long userId) {
         Film film = findById(filmId).orElseThrow(() ->
                 new NotFoundException("Фильм с id = " + filmId + " не найден"));
-        Set<Long> likes = film.getLikes();
-        likes.add(userId);
-        film.setLikes(likes);
+        if (userStorage.findById(userId).isEmpty()) {
+            throw new NotFoundException("Пользователь с id = " + userId + " не найден");
+        }
+        boolean added = journal.mutate(() -> changeLike(film, userId, true));
+        if (added) {
+            popularity.increment(filmId);
+        }
+        return added;
     }
 
     @Override
-    public void deleteLikeByUser(Long filmId, Long userId) {
+    public boolean deleteLikeByUser(Long filmId, Long userId) {
         Film film = findById(filmId).orElseThrow(() ->
                 new NotFoundException("Фильм с id = " + filmId + " не найден"));
-        Set<Long> likes = film.getLikes();
-        likes.remove(userId);
-        film.setLikes(likes);
+        boolean removed = journal.mutate(() -> changeLike(film, userId, false));
+        if (removed) {
+            popularity.decrement(filmId);
+        }
+        return removed;
+    }
+
+    // лайк и его отмена для одного фильма попадают в журнал в порядке изменения множества лайков
+    private boolean changeLike(Film film, long userId, boolean liked) {
+        synchronized (film.getLikes()) {
+            boolean changed = liked ? film.getLikes().add(userId) : film.getLikes().remove(userId);
+            if (changed) {
+                journal.likeChanged(film.getId(), userId, liked);
+                touch(film);
+            }
+            return changed;
+        }
+    }
+
+    // версия берется под блокировкой фильма, поэтому у одного фильма она только растет
+    private void touch(Film film) {
+        synchronized (film) {
+            film.setVersion(lastVersion.incrementAndGet());
+        }
+    }
+
+    @Override
+    public List<LikeStatus> addLikes(List<Like> likes) {
+        List<LikeStatus> statuses = new ArrayList<>(likes.size());
+        for (Like like : likes) {
+            Film film = films.get(like.getFilmId());
+            if (film == null) {
+                statuses.add(LikeStatus.UNKNOWN_FILM);
+            } else if (userStorage.findById(like.getUserId()).isEmpty()) {
+                statuses.add(LikeStatus.UNKNOWN_USER);
+            } else if (journal.mutate(() -> changeLike(film, like.getUserId(), true))) {
+                popularity.increment(film.getId());
+                statuses.add(LikeStatus.INSERTED);
+            } else {
+                statuses.add(LikeStatus.DUPLICATE);
+            }
+        }
+        return statuses;
     }
 
     @Override
     public Collection<Film> getPopularFilms(int count) {
-        return findAll()
-                .stream()
-                .sorted(Film.byLikesCountDesc())
-                .limit(count)
-                .toList();
+        return findAllByIds(popularity.top(count));
     }
 
-    // вспомогательный метод для генерации идентификатора нового пользователя
-    private long getNextId() {
-        long currentMaxId = films.keySet()
-                .stream()
-                .mapToLong(id -> id)
-                .max()
-                .orElse(0);
-        return ++currentMaxId;
+    @Override
+    public Map<Long, Integer> getLikeCounts() {
+        Map<Long, Integer> likeCounts = new HashMap<>();
+        films.forEach((id, film) -> likeCounts.put(id, film.getLikes().size()));
+        return likeCounts;
+    }
+
+    @Override
+    public Map<Long, long[]> getLikedFilms() {
+        // фильмы перебираются по возрастанию id, поэтому списки пользователей получаются отсортированными
+        Map<Long, List<Long>> filmsByUser = new HashMap<>();
+        films.forEach((id, film) -> film.getLikes()
+                .forEach(userId -> filmsByUser.computeIfAbsent(userId, k -> new ArrayList<>()).add(id)));
+        Map<Long, long[]> likedFilms = new HashMap<>();
+        filmsByUser.forEach((userId, ids) -> likedFilms.put(userId, ids.stream()
+                .mapToLong(Long::longValue)
+                .toArray()));
+        return likedFilms;
+    }
+
+    public long lastId() {
+        return lastId.get();
+    }
+
+    // восстановление из снимка и журнала: без проверок и записи в журнал, рейтинг затем строится через rebuildPopularity
+    public void restoreLastId(long id) {
+        lastId.accumulateAndGet(id, Math::max);
+    }
+
+    // поля существующего фильма заменяются, а его лайки остаются; новый фильм сохраняется вместе с лайками
+    public void restoreFilm(Film film) {
+        film.setVersion(lastVersion.incrementAndGet());
+        Film oldFilm = films.putIfAbsent(film.getId(), film);
+        if (oldFilm == null) {
+            restoreLastId(film.getId());
+            return;
+        }
+        oldFilm.setVersion(film.getVersion());
+        oldFilm.setName(film.getName());
+        oldFilm.setDescription(film.getDescription());
+        oldFilm.setReleaseDate(film.getReleaseDate());
+        oldFilm.setDuration(film.getDuration());
+        oldFilm.setGenres(film.getGenres());
+        oldFilm.setMpa(film.getMpa());
+    }
+
+    public void restoreLike(long filmId, long userId, boolean liked) {
+        Film film = films.get(filmId);
+        if (film != null && liked) {
+            film.getLikes().add(userId);
+        } else if (film != null) {
+            film.getLikes().remove(userId);
+        }
+    }
+
+    public void rebuildPopularity() {
+        popularity.rebuild(this::getLikeCounts);
     }
 }
@@ -7,29 +7,57 @@ import ru.yandex.practicum.filmorate.exception.ValidationException;
 import ru.yandex.practicum.filmorate.model.User;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 @Slf4j
 @Component
 public class InMemoryUserStorage implements UserStorage {
 
-    private final Map<Long, User> users = new HashMap<>();
+    // записи по возрастанию id, что нужно для постраничной выдачи; запросы обращаются к хранилищу параллельно
+    private final NavigableMap<Long, User> users = new ConcurrentSkipListMap<>();
+    private final AtomicLong lastId = new AtomicLong();
+    private volatile MemoryJournal journal = MemoryJournal.NONE;
+
+    public void setJournal(MemoryJournal journal) {
+        this.journal = journal;
+    }
 
     @Override
     public Collection<User> findAll() {
         return users.values();
     }
 
+    @Override
+    public void streamAll(Consumer<User> action) {
+        users.values().forEach(action);
+    }
+
+    @Override
+    public List<User> findPage(long afterId, int limit) {
+        return users.tailMap(afterId, false)
+                .values()
+                .stream()
+                .limit(limit)
+                .toList();
+    }
+
     @Override
     public User create(User user) {
         if (user.getName() == null || user.getName().isBlank()) {
             user.setName(user.getLogin());
         }
-        // формируем дополнительные данные
-        user.setId(getNextId());
-        // сохраняем нового пользователя в памяти приложения
-        users.put(user.getId(), user);
-        log.info("Создан пользователь {}", user);
-        return user;
+        return journal.mutate(() -> {
+            // формируем дополнительные данные
+            user.setId(lastId.incrementAndGet());
+            // пока пользователя нет в хранилище, запись о нем в журнале не обгонит запись о дружбе
+            journal.userCreated(user);
+            // сохраняем нового пользователя в памяти приложения
+            users.put(user.getId(), user);
+            log.info("Создан пользователь {}", user);
+            return user;
+        });
     }
 
     @Override
@@ -39,8 +67,19 @@ public class InMemoryUserStorage implements UserStorage {
             log.warn("Ошибка при обновлении пользователя {}: Id должен быть указан", newUser);
             throw new ValidationException("Id должен быть указан");
         }
-        if (users.containsKey(newUser.getId())) {
-            User oldUser = users.get(newUser.getId());
+        User oldUser = users.get(newUser.getId());
+        if (oldUser != null) {
+            journal.mutate(() -> updateFields(oldUser, newUser));
+            log.info("Данные пользователя {} обновлены", oldUser);
+            return oldUser;
+        }
+        log.warn("Пользователь с id = {} не найден", newUser.getId());
+        throw new NotFoundException("Пользователь с id = " + newUser.getId() + " не найден");
+    }
+
+    private User updateFields(User oldUser, User newUser) {
+        // одновременные обновления одной записи идут по очереди
+        synchronized (oldUser) {
             if (newUser.getBirthday() != null) {
                 oldUser.setBirthday(newUser.getBirthday());
             }
@@ -57,11 +96,9 @@ public class InMemoryUserStorage implements UserStorage {
             if (oldUser.getName().isBlank()) {
                 oldUser.setName(oldUser.getLogin());
             }
-            log.info("Данные пользователя {} обновлены", oldUser);
-            return oldUser;
+            journal.userUpdated(oldUser);
         }
-        log.warn("Пользователь с id = {} не найден", newUser.getId());
-        throw new NotFoundException("Пользователь с id = " + newUser.getId() + " не найден");
+        return oldUser;
     }
 
     @Override
@@ -69,12 +106,31 @@ public class InMemoryUserStorage implements UserStorage {
         return Optional.ofNullable(users.get(id));
     }
 
+    @Override
+    public List<User> findAllByIds(Collection<Long> ids) {
+        return ids.stream()
+                .distinct()
+                .map(users::get)
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
+    @Override
+    public Map<Long, long[]> getFriendLists() {
+        Map<Long, long[]> friendLists = new HashMap<>();
+        users.forEach((id, user) -> {
+            long[] friendIds = user.getFriends().toArray();
+            Arrays.sort(friendIds);
+            friendLists.put(id, friendIds);
+        });
+        return friendLists;
+    }
+
     @Override
     public Collection<User> getFriendsByUser(Long id) {
         User user = findById(id).orElseThrow(() -> new NotFoundException("Пользователь с id = " + id + " не найден"));
-        return user.getFriends().keySet()
-                .stream()
-                .map(this::findById)
+        return Arrays.stream(user.getFriends().toArray())
+                .mapToObj(this::findById)
                 .filter(Optional::isPresent)
                 .map(Optional::get)
                 .toList();
@@ -87,10 +143,9 @@ public class InMemoryUserStorage implements UserStorage {
         User otherUser = findById(otherId).orElseThrow(() ->
                 new NotFoundException("Пользователь с id = " + otherId + " не найден"));
 
-        return user.getFriends().keySet()
-                .stream()
-                .filter(otherUser.getFriends().keySet()::contains)
-                .map(this::findById)
+        return Arrays.stream(user.getFriends().toArray())
+                .filter(otherUser.getFriends()::contains)
+                .mapToObj(this::findById)
                 .filter(Optional::isPresent)
                 .map(Optional::get)
                 .toList();
@@ -102,15 +157,7 @@ public class InMemoryUserStorage implements UserStorage {
                 new NotFoundException("Пользователь с id = " + id + " не найден"));
         User friend = findById(friendId).orElseThrow(() ->
                 new NotFoundException("Пользователь с id = " + friendId + " не найден"));
-        // добавляем в друзья пользователя
-        Map<Long, Boolean> friends = user.getFriends();
-        friends.put(friend.getId(), true);
-        user.setFriends(friends);
-
-        // добавляем пользователя в друзья у соответствующего друга
-        Map<Long, Boolean> friendsOfFriend = friend.getFriends();
-        friendsOfFriend.put(user.getId(), true);
-        friend.setFriends(friendsOfFriend);
+        journal.mutate(() -> changeFriendship(user, friend, true));
     }
 
     @Override
@@ -119,26 +166,67 @@ public class InMemoryUserStorage implements UserStorage {
                 new NotFoundException("Пользователь с id = " + id + " не найден"));
         User friend = findById(friendId).orElseThrow(() ->
                 new NotFoundException("Пользователь с id = " + friendId + " не найден"));
+        journal.mutate(() -> changeFriendship(user, friend, false));
+    }
 
-        // удаляем у пользователя
-        Map<Long, Boolean> friends = user.getFriends();
-        friends.remove(friend.getId());
-        user.setFriends(friends);
+    // друзья каждого пользователя меняются только под их блокировкой, обе берутся по возрастанию id:
+    // изменения одной пары попадают в журнал в том же порядке, в каком применялись
+    private boolean changeFriendship(User user, User friend, boolean added) {
+        User first = user.getId() < friend.getId() ? user : friend;
+        User second = first == user ? friend : user;
+        synchronized (first.getFriends()) {
+            synchronized (second.getFriends()) {
+                boolean changed;
+                if (added) {
+                    // добавляем в друзья пользователя и пользователя в друзья у соответствующего друга
+                    changed = user.getFriends().put(friend.getId(), true)
+                            | friend.getFriends().put(user.getId(), true);
+                } else {
+                    // удаляем у пользователя и из друзей пользователя у соответствующего друга
+                    changed = user.getFriends().remove(friend.getId()) | friend.getFriends().remove(user.getId());
+                }
+                if (changed) {
+                    journal.friendChanged(user.getId(), friend.getId(), added);
+                }
+                return changed;
+            }
+        }
+    }
 
-        // удаляем из друзей пользователя у соответствующего друга
-        Map<Long, Boolean> friendsOfFriend = friend.getFriends();
-        friendsOfFriend.remove(user.getId());
-        friend.setFriends(friendsOfFriend);
+    public long lastId() {
+        return lastId.get();
+    }
 
+    // восстановление из снимка и журнала: без проверок и записи в журнал
+    public void restoreLastId(long id) {
+        lastId.accumulateAndGet(id, Math::max);
     }
 
-    // вспомогательный метод для генерации идентификатора нового пользователя
-    private long getNextId() {
-        long currentMaxId = users.keySet()
-                .stream()
-                .mapToLong(id -> id)
-                .max()
-                .orElse(0);
-        return ++currentMaxId;
+    // поля существующего пользователя заменяются, а его друзья остаются; новый сохраняется вместе с друзьями
+    public void restoreUser(User user) {
+        User oldUser = users.putIfAbsent(user.getId(), user);
+        if (oldUser == null) {
+            restoreLastId(user.getId());
+            return;
+        }
+        oldUser.setEmail(user.getEmail());
+        oldUser.setLogin(user.getLogin());
+        oldUser.setName(user.getName());
+        oldUser.setBirthday(user.getBirthday());
+    }
+
+    public void restoreFriendship(long id, long friendId, boolean added) {
+        User user = users.get(id);
+        User friend = users.get(friendId);
+        if (user == null || friend == null) {
+            return;
+        }
+        if (added) {
+            user.getFriends().put(friendId, true);
+            friend.getFriends().put(id, true);
+        } else {
+            user.getFriends().remove(friendId);
+            friend.getFriends().remove(id);
+        }
     }
 }
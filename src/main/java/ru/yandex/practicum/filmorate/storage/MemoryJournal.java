@@ -0,0 +1,58 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.User;
+
+import java.util.function.Supplier;
+
+// журнал изменений хранилищ в памяти: о каждом изменении сообщается под блокировкой изменяемой записи
+public interface MemoryJournal {
+
+    MemoryJournal NONE = new MemoryJournal() {
+        @Override
+        public <T> T mutate(Supplier<T> change) {
+            return change.get();
+        }
+
+        @Override
+        public void filmCreated(Film film) {
+        }
+
+        @Override
+        public void filmUpdated(Film film) {
+        }
+
+        @Override
+        public void userCreated(User user) {
+        }
+
+        @Override
+        public void userUpdated(User user) {
+        }
+
+        @Override
+        public void likeChanged(long filmId, long userId, boolean liked) {
+        }
+
+        @Override
+        public void friendChanged(long userId, long friendId, boolean added) {
+        }
+    };
+
+    <T> T mutate(Supplier<T> change);
+
+    // новая запись еще не видна другим запросам, о ней сообщается вместе с лайками или друзьями
+    void filmCreated(Film film);
+
+    // новое состояние полей записи без лайков: они меняются отдельно
+    void filmUpdated(Film film);
+
+    void userCreated(User user);
+
+    void userUpdated(User user);
+
+    void likeChanged(long filmId, long userId, boolean liked);
+
+    // дружба меняется в обе стороны сразу
+    void friendChanged(long userId, long friendId, boolean added);
+}
@@ -1,20 +1,30 @@
 package ru.yandex.practicum.filmorate.storage;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
+import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.model.User;
 
-import java.util.Collection;
-import java.util.Optional;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 @Slf4j
 @Repository
 public class UserDbStorage extends BaseRepository<User> implements UserStorage {
 
     private static final String FIND_ALL_QUERY = "SELECT * FROM users";
+    private static final String FIND_PAGE_QUERY = "SELECT * FROM users WHERE id > ? ORDER BY id LIMIT ?";
     private static final String FIND_BY_ID_QUERY = "SELECT * FROM users WHERE id = ?";
+    private static final String FIND_ALL_BY_IDS_QUERY = "SELECT * FROM users WHERE id IN (%s)";
+    private static final String FIND_ALL_IDS_QUERY = "SELECT id FROM users";
+    // порядок первичного ключа: друзья каждого пользователя идут подряд и уже отсортированы
+    private static final String FIND_ALL_FRIEND_IDS_QUERY
+            = "SELECT user_id, friend_id FROM user_friends ORDER BY user_id, friend_id";
     private static final String INSERT_QUERY = "INSERT INTO users(login, email, name, birthday)" +
             "VALUES (?, ?, ?, ?)";
     private static final String UPDATE_QUERY = """
@@ -31,8 +41,17 @@ public class UserDbStorage extends BaseRepository<User> implements UserStorage {
     WHERE uf1.user_id = ?
     AND uf2.user_id = ?
     """;
-    private static final String INSERT_FRIEND_QUERY
-            = "INSERT INTO user_friends (user_id, friend_id, confirmed) VALUES (?, ?, ?)";
+    // обе записи дружбы одним запросом: прямая подтверждена, обратная нет; повторный вызов ничего не меняет,
+    // а встречная заявка подтверждает уже существующую обратную запись
+    private static final String MERGE_FRIEND_QUERY = """
+    MERGE INTO user_friends uf
+    USING (VALUES (CAST(? AS BIGINT), CAST(? AS BIGINT), TRUE), (CAST(? AS BIGINT), CAST(? AS BIGINT), FALSE))
+        AS s(user_id, friend_id, confirmed)
+    ON uf.user_id = s.user_id AND uf.friend_id = s.friend_id
+    WHEN MATCHED AND s.confirmed AND NOT uf.confirmed THEN UPDATE SET confirmed = TRUE
+    WHEN NOT MATCHED THEN INSERT (user_id, friend_id, confirmed) VALUES (s.user_id, s.friend_id, s.confirmed)""";
+    // нужен, только когда дружба не изменилась: находит несуществующих пользователей
+    private static final String FIND_EXISTING_IDS_QUERY = "SELECT id FROM users WHERE id IN (?, ?)";
 
     private static final String DELETE_FRIEND_QUERY
             = "DELETE FROM user_friends WHERE user_id = ? AND friend_id = ?";
@@ -46,6 +65,18 @@ public class UserDbStorage extends BaseRepository<User> implements UserStorage {
         return findMany(FIND_ALL_QUERY);
     }
 
+    @Override
+    public void streamAll(Consumer<User> action) {
+        try (Stream<User> users = stream(FIND_ALL_QUERY, mapper)) {
+            users.forEach(action);
+        }
+    }
+
+    @Override
+    public List<User> findPage(long afterId, int limit) {
+        return findMany(FIND_PAGE_QUERY, afterId, limit);
+    }
+
     @Override
     public User create(User user) {
         long id = insert(
@@ -78,6 +109,32 @@ public class UserDbStorage extends BaseRepository<User> implements UserStorage {
         return findOne(FIND_BY_ID_QUERY, id);
     }
 
+    @Override
+    public List<User> findAllByIds(Collection<Long> ids) {
+        List<Long> distinctIds = new ArrayList<>(new LinkedHashSet<>(ids));
+        Map<Long, User> usersById = new HashMap<>();
+        for (List<Long> chunk : partition(distinctIds, IN_CLAUSE_CHUNK_SIZE)) {
+            findMany(withPlaceholders(FIND_ALL_BY_IDS_QUERY, chunk.size()), chunk.toArray())
+                    .forEach(user -> usersById.put(user.getId(), user));
+        }
+        return distinctIds.stream()
+                .map(usersById::get)
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
+    @Override
+    public Map<Long, long[]> getFriendLists() {
+        Map<Long, long[]> friendLists = new HashMap<>();
+        query(FIND_ALL_IDS_QUERY, rs -> {
+            friendLists.put(rs.getLong("id"), new long[0]);
+        });
+        IdListCollector collector = new IdListCollector(friendLists);
+        query(FIND_ALL_FRIEND_IDS_QUERY, collector);
+        collector.finish();
+        return friendLists;
+    }
+
     @Override
     public Collection<User> getFriendsByUser(Long id) {
         return findMany(FIND_ALL_USER_FRIENDS_QUERY, id);
@@ -90,12 +147,32 @@ public class UserDbStorage extends BaseRepository<User> implements UserStorage {
 
     @Override
     public void addFriend(Long id, Long friendId) {
-        insert(INSERT_FRIEND_QUERY,false, id, friendId, true);
-        insert(INSERT_FRIEND_QUERY,false, friendId, id, false);
+        try {
+            updateRows(MERGE_FRIEND_QUERY, id, friendId, friendId, id);
+        } catch (DuplicateKeyException e) {
+            // ту же дружбу параллельно записал другой запрос
+        } catch (DataIntegrityViolationException e) {
+            checkUsersExist(id, friendId);
+            throw e;
+        }
     }
 
     @Override
     public void deleteFriend(Long id, Long friendId) {
-        delete(DELETE_FRIEND_QUERY, id, friendId);
+        if (!delete(DELETE_FRIEND_QUERY, id, friendId)) {
+            checkUsersExist(id, friendId);
+        }
+    }
+
+    private void checkUsersExist(Long id, Long otherId) {
+        Set<Long> existing = new HashSet<>();
+        query(FIND_EXISTING_IDS_QUERY, rs -> {
+            existing.add(rs.getLong("id"));
+        }, id, otherId);
+        for (Long userId : List.of(id, otherId)) {
+            if (!existing.contains(userId)) {
+                throw new NotFoundException("Пользователь с id = " + userId + " не найден");
+            }
+        }
     }
 }
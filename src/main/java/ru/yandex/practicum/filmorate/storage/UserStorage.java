@@ -3,18 +3,33 @@ package ru.yandex.practicum.filmorate.storage;
 import ru.yandex.practicum.filmorate.model.User;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 public interface UserStorage {
 
     Collection<User> findAll();
 
+    // передает всех пользователей по одному, не собирая их в памяти
+    void streamAll(Consumer<User> action);
+
+    // не больше limit пользователей с id больше afterId, по возрастанию id
+    List<User> findPage(long afterId, int limit);
+
     User create(User user);
 
     User update(User newUser);
 
     Optional<User> findById(Long id);
 
+    // пользователи в порядке переданных id, отсутствующие id пропускаются
+    List<User> findAllByIds(Collection<Long> ids);
+
+    // все пользователи с отсортированными id друзей (строки user_friends), для индекса в памяти
+    Map<Long, long[]> getFriendLists();
+
     Collection<User> getFriendsByUser(Long id);
 
     Collection<User> getCommonFriends(Long id, Long otherId);
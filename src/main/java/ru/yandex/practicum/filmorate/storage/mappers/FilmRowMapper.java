@@ -22,6 +22,7 @@ public class FilmRowMapper implements RowMapper<Film> {
         mpa.setId(resultSet.getInt("rating_id"));
         mpa.setName(resultSet.getString("mpa_name"));
         film.setMpa(mpa);
+        film.setVersion(resultSet.getLong("version"));
         return film;
     }
 }
\ No newline at end of file
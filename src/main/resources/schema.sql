@@ -12,8 +12,13 @@ CREATE TABLE IF NOT EXISTS films (
             description VARCHAR(200),
             release_date DATE,
             duration INT,
-            rating_id INT REFERENCES ratings(id)
+            rating_id INT REFERENCES ratings(id),
+            likes_count INT DEFAULT 0 NOT NULL,
+            version BIGINT DEFAULT 0 NOT NULL
           );
+ALTER TABLE films ADD COLUMN IF NOT EXISTS likes_count INT DEFAULT 0 NOT NULL;
+ALTER TABLE films ADD COLUMN IF NOT EXISTS version BIGINT DEFAULT 0 NOT NULL;
+CREATE INDEX IF NOT EXISTS films_likes_count_idx ON films (likes_count DESC, id);
 CREATE TABLE IF NOT EXISTS users (
             id BIGINT GENERATED ALWAYS AS IDENTITY PRIMARY KEY,
             login VARCHAR(40) NOT NULL,
@@ -37,4 +42,7 @@ CREATE TABLE IF NOT EXISTS likes (
             user_id BIGINT REFERENCES users(id) NOT NULL,
             film_id BIGINT REFERENCES films(id) NOT NULL,
             PRIMARY KEY (user_id, film_id)
-          );
\ No newline at end of file
+          );
+CREATE INDEX IF NOT EXISTS likes_film_id_idx ON likes (film_id, user_id);
+CREATE INDEX IF NOT EXISTS user_friends_friend_id_idx ON user_friends (friend_id, user_id);
+CREATE INDEX IF NOT EXISTS film_genres_genre_id_idx ON film_genres (genre_id, film_id);
@@ -7,8 +7,11 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import ru.yandex.practicum.filmorate.cache.FilmJsonCache;
 import ru.yandex.practicum.filmorate.controller.FilmController;
 import ru.yandex.practicum.filmorate.dto.FilmDto;
 import ru.yandex.practicum.filmorate.dto.NewFilmRequest;
@@ -24,9 +27,12 @@ import java.util.Collection;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.not;
 
 
-@SpringBootTest
+@SpringBootTest(properties = "filmorate.query-budget.strict=true")
 @AutoConfigureMockMvc
 class FilmControllerTest {
 
@@ -36,6 +42,9 @@ class FilmControllerTest {
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private FilmJsonCache filmJsonCache;
+
     private FilmController controller;
 
     private NewFilmRequest validFilm;
@@ -51,10 +60,9 @@ class FilmControllerTest {
         Rating mpa = new Rating();
         mpa.setId(1);
         validFilm.setMpa(mpa);
-        FilmStorage filmStorage = new InMemoryFilmStorage();
-        UserStorage userStorage = new InMemoryUserStorage();
-        FilmService filmService = new FilmService(filmStorage, userStorage);
-        controller = new FilmController(filmService);
+        FilmStorage filmStorage = new InMemoryFilmStorage(new InMemoryUserStorage());
+        FilmService filmService = new FilmService(filmStorage);
+        controller = new FilmController(filmService, filmJsonCache);
     }
 
     @SneakyThrows
@@ -134,6 +142,73 @@ class FilmControllerTest {
                 .andExpect(status().isOk());
     }
 
+    @SneakyThrows
+    @Test
+    void exportFilms_StreamsJsonArray() {
+        mockMvc.perform(post("/films")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(validFilm)));
+
+        MvcResult result = mockMvc.perform(get("/films/export"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$").isArray())
+                .andExpect(jsonPath("$.length()").value(greaterThan(0)))
+                .andExpect(jsonPath("$[0].genres").isArray());
+    }
+
+    @SneakyThrows
+    @Test
+    void sqlMetrics_ReportQueriesByConstantName() {
+        mockMvc.perform(get("/films"))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(get("/admin/metrics/sql"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].query", hasItem("FilmDbStorage.FIND_ALL_QUERY")))
+                .andExpect(jsonPath("$[0].p99Ms").isNumber());
+    }
+
+    @SneakyThrows
+    @Test
+    void queryBudget_ReportsQueryCountHeader() {
+        mockMvc.perform(post("/films")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(validFilm)))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Query-Count", "1"));
+
+        mockMvc.perform(get("/films/popular"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists("X-Query-Count"));
+    }
+
+    @SneakyThrows
+    @Test
+    void addLikesBatch_ReportsStatusForEachLike() {
+        MvcResult created = mockMvc.perform(post("/films")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(validFilm)))
+                .andExpect(status().isOk())
+                .andReturn();
+        long filmId = objectMapper.readTree(created.getResponse().getContentAsString()).get("id").asLong();
+
+        mockMvc.perform(post("/films/likes:batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"filmId\": " + filmId + ", \"userId\": 999999999},"
+                                + " {\"filmId\": 999999999, \"userId\": 1}]"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].status").value("UNKNOWN_USER"))
+                .andExpect(jsonPath("$[1].status").value("UNKNOWN_FILM"));
+
+        mockMvc.perform(post("/films/likes:batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[]"))
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     void getAllFilms_WhenNoFilmsAdded_ReturnsEmptyList() {
         Collection<FilmDto> films = controller.findAll();
@@ -269,4 +344,43 @@ class FilmControllerTest {
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.releaseDate").value("1895-12-28"));
     }
-}
\ No newline at end of file
+
+    @SneakyThrows
+    @Test
+    void getFilm_MatchingETag_ReturnsNotModified() {
+        String response = mockMvc.perform(post("/films")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(validFilm)))
+                .andReturn().getResponse().getContentAsString();
+        Film film = objectMapper.readValue(response, Film.class);
+
+        String etag = mockMvc.perform(get("/films/" + film.getId()))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        mockMvc.perform(get("/films/" + film.getId()).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+
+        film.setName("Updated Name");
+        mockMvc.perform(put("/films")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(film)));
+        mockMvc.perform(get("/films/" + film.getId()).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, not(etag)))
+                .andExpect(jsonPath("$.name").value("Updated Name"));
+    }
+
+    @SneakyThrows
+    @Test
+    void getReferenceData_MatchingETag_ReturnsNotModified() {
+        for (String path : new String[]{"/genres", "/genres/1", "/mpa", "/mpa/1"}) {
+            String etag = mockMvc.perform(get(path))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+            mockMvc.perform(get(path).header(HttpHeaders.IF_NONE_MATCH, etag))
+                    .andExpect(status().isNotModified());
+        }
+    }
+}
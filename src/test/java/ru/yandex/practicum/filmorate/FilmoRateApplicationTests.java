@@ -3,28 +3,77 @@ package ru.yandex.practicum.filmorate;
 import lombok.RequiredArgsConstructor;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.support.KeyHolder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.budget.QueryBudget;
+import ru.yandex.practicum.filmorate.budget.QueryCounter;
+import ru.yandex.practicum.filmorate.cache.FilmJsonCache;
+import ru.yandex.practicum.filmorate.cache.ReferenceDataCache;
+import ru.yandex.practicum.filmorate.controller.FilmController;
+import ru.yandex.practicum.filmorate.controller.RecommendationController;
+import ru.yandex.practicum.filmorate.controller.UserController;
+import ru.yandex.practicum.filmorate.datagen.DatasetGenerator;
+import ru.yandex.practicum.filmorate.datagen.DatasetProperties;
+import ru.yandex.practicum.filmorate.metrics.SqlMetrics;
+import ru.yandex.practicum.filmorate.dto.FilmDto;
+import ru.yandex.practicum.filmorate.dto.FriendSuggestionDto;
+import ru.yandex.practicum.filmorate.dto.LikeDto;
+import ru.yandex.practicum.filmorate.dto.NewFilmRequest;
+import ru.yandex.practicum.filmorate.dto.NewUserRequest;
+import ru.yandex.practicum.filmorate.dto.SqlQueryStatsDto;
+import ru.yandex.practicum.filmorate.dto.UpdateFilmRequest;
+import ru.yandex.practicum.filmorate.dto.UpdateUserRequest;
+import ru.yandex.practicum.filmorate.exception.NotFoundException;
+import ru.yandex.practicum.filmorate.index.FilmSimilarityModel;
+import ru.yandex.practicum.filmorate.index.FriendBitmapIndex;
+import ru.yandex.practicum.filmorate.index.FriendGraphIndex;
+import ru.yandex.practicum.filmorate.index.PopularityIndex;
+import ru.yandex.practicum.filmorate.likes.LikeWriteBehind;
+import ru.yandex.practicum.filmorate.likes.LikesFlushedEvent;
 import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Like;
+import ru.yandex.practicum.filmorate.model.LikeStatus;
 import ru.yandex.practicum.filmorate.model.Rating;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.service.FilmRecommendationService;
+import ru.yandex.practicum.filmorate.service.FilmService;
+import ru.yandex.practicum.filmorate.service.UserService;
 import ru.yandex.practicum.filmorate.storage.*;
 import ru.yandex.practicum.filmorate.storage.mappers.FilmRowMapper;
 import ru.yandex.practicum.filmorate.storage.mappers.GenreRowMapper;
 import ru.yandex.practicum.filmorate.storage.mappers.RatingRowMapper;
 import ru.yandex.practicum.filmorate.storage.mappers.UserRowMapper;
 
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.time.LocalDate;
-import java.util.Collection;
-import java.util.List;
-import java.util.Map;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.assertj.core.api.AssertionsForClassTypes.assertThatThrownBy;
 
 @JdbcTest
 @AutoConfigureTestDatabase
@@ -38,6 +87,7 @@ class FilmoRateApplicationTests {
     private final JdbcTemplate jdbcTemplate;
     private final RatingDbStorage ratingDbStorage;
     private final GenreDbStorage genreDbStorage;
+    private final PlatformTransactionManager transactionManager;
 
     private User user;
     private User user2;
@@ -171,6 +221,158 @@ class FilmoRateApplicationTests {
         assertThat(user2Friends.isEmpty()).isTrue();
     }
 
+    @Test
+    public void testFriendGraphIndex() {
+        Random random = new Random(1);
+        for (int[] sizes : new int[][]{{0, 10}, {50, 60}, {20, 5_000}, {3, 100_000}}) {
+            long[] first = random.longs(sizes[0], 1, 200_000).distinct().sorted().toArray();
+            long[] second = random.longs(sizes[1], 1, 200_000).distinct().sorted().toArray();
+            Set<Long> secondIds = new HashSet<>();
+            Arrays.stream(second).forEach(secondIds::add);
+            long[] expected = Arrays.stream(first).filter(secondIds::contains).toArray();
+
+            FriendGraphIndex index = new FriendGraphIndex();
+            index.rebuild(Map.of(1L, first, 2L, second));
+            assertThat(index.commonFriends(1L, 2L)).isEqualTo(expected);
+            assertThat(index.commonFriends(2L, 1L)).isEqualTo(expected);
+        }
+
+        UserService userService = new UserService(userStorage);
+        userService.addFriend(1L, 3L);
+        userService.addFriend(2L, 3L);
+        assertThat(userService.getCommonFriends(1L, 2L).iterator().next().getId()).isEqualTo(3L);
+        userService.deleteFriend(1L, 3L);
+        assertThat(userService.getCommonFriends(1L, 2L).isEmpty()).isTrue();
+        // обратная запись (3, 1) осталась, как и в user_friends
+        assertThat(QueryCounter.count(() -> userService.getCommonFriends(3L, 2L))).isEqualTo(0);
+        assertThatThrownBy(() -> userService.getCommonFriends(1L, 100L))
+                .isInstanceOf(NotFoundException.class);
+    }
+
+    @Test
+    public void testFriendSuggestions() {
+        FriendBitmapIndex index = new FriendBitmapIndex();
+        // у 1 друзья 2 и 3; 4 дружит с обоими, 5 только с 2, 6 дружит с 2 лишь с его стороны
+        index.rebuild(Map.of(
+                1L, new long[]{2, 3},
+                2L, new long[]{1, 4, 5, 6},
+                3L, new long[]{1, 4},
+                4L, new long[]{2, 3},
+                5L, new long[]{2}));
+        assertThat(index.suggestions(1L, 10)).isEqualTo(List.of(
+                new FriendBitmapIndex.Suggestion(4L, 2),
+                new FriendBitmapIndex.Suggestion(5L, 1)));
+        assertThat(index.suggestions(1L, 1)).isEqualTo(List.of(new FriendBitmapIndex.Suggestion(4L, 2)));
+        index.removeFriend(1L, 3L);
+        assertThat(index.suggestions(1L, 10)).isEqualTo(List.of(
+                new FriendBitmapIndex.Suggestion(4L, 1),
+                new FriendBitmapIndex.Suggestion(5L, 1)));
+
+        UserService userService = new UserService(userStorage);
+        userService.addFriend(1L, 2L);
+        userService.addFriend(2L, 3L);
+        assertThat(QueryCounter.count(() -> assertThat(userService.getFriendSuggestions(1L, 10))
+                .isEqualTo(List.of(new FriendSuggestionDto(3L, 1))))).isEqualTo(0);
+        userService.addFriend(1L, 3L);
+        assertThat(userService.getFriendSuggestions(1L, 10).isEmpty()).isTrue();
+        assertThatThrownBy(() -> userService.getFriendSuggestions(100L, 10))
+                .isInstanceOf(NotFoundException.class);
+    }
+
+    @Test
+    public void testFriendSuggestionsLargeIds() {
+        // id за пределами int: индекс строится при старте сервиса и обновляется при добавлении в друзья
+        jdbcTemplate.update("ALTER TABLE users ALTER COLUMN id RESTART WITH 3000000000");
+        long[] ids = new long[3];
+        for (int i = 0; i < ids.length; i++) {
+            User large = new User();
+            large.setEmail("large" + i + "@mail.ru");
+            large.setLogin("large" + i);
+            large.setName("large" + i);
+            large.setBirthday(LocalDate.now());
+            ids[i] = userStorage.create(large).getId();
+        }
+        assertThat(ids[0]).isGreaterThan((long) Integer.MAX_VALUE);
+        userStorage.addFriend(ids[0], ids[1]);
+
+        UserService userService = new UserService(userStorage);
+        userService.addFriend(ids[1], ids[2]);
+        assertThat(userService.getFriendSuggestions(ids[0], 10))
+                .isEqualTo(List.of(new FriendSuggestionDto(ids[2], 1)));
+        userService.deleteFriend(ids[1], ids[2]);
+        assertThat(userService.getFriendSuggestions(ids[0], 10).isEmpty()).isTrue();
+    }
+
+    @Test
+    public void testFilmRecommendations() {
+        // соседи, посчитанные задачами fork/join, совпадают с полным перебором
+        Random random = new Random(7);
+        Map<Long, long[]> likedFilms = new HashMap<>();
+        for (long userId = 1; userId <= 300; userId++) {
+            likedFilms.put(userId, random.longs(20, 1, 700).distinct().sorted().toArray());
+        }
+        FilmSimilarityModel model = FilmSimilarityModel.build(likedFilms, 5, ForkJoinPool.commonPool());
+        for (long filmId : new long[]{likedFilms.get(1L)[0], likedFilms.get(150L)[5], likedFilms.get(300L)[2]}) {
+            Map<Long, Integer> common = new HashMap<>();
+            Map<Long, Integer> likes = new HashMap<>();
+            likedFilms.values().forEach(ids -> {
+                Arrays.stream(ids).forEach(id -> likes.merge(id, 1, Integer::sum));
+                if (Arrays.binarySearch(ids, filmId) >= 0) {
+                    Arrays.stream(ids).filter(id -> id != filmId).forEach(id -> common.merge(id, 1, Integer::sum));
+                }
+            });
+            Map<Long, Float> similarity = new HashMap<>();
+            common.forEach((id, count) -> similarity.put(id,
+                    (float) (count / Math.sqrt((double) likes.get(filmId) * likes.get(id)))));
+            long[] expected = similarity.keySet().stream()
+                    .sorted(Comparator.<Long, Float>comparing(similarity::get).reversed().thenComparing(Comparator.naturalOrder()))
+                    .limit(5)
+                    .mapToLong(Long::longValue)
+                    .toArray();
+            assertThat(model.neighbours(filmId)).isEqualTo(expected);
+        }
+
+        // 1 лайкнул оба фильма, 2 только первый: второму рекомендуется второй фильм
+        filmStorage.addLikeByUser(1L, 1L);
+        filmStorage.addLikeByUser(2L, 1L);
+        filmStorage.addLikeByUser(1L, 2L);
+        FilmRecommendationService service = new FilmRecommendationService(filmStorage, filmService(jdbcTemplate),
+                new UserService(userStorage), 20, 600_000);
+        // до первой сборки модели рекомендации пустые
+        assertThat(service.getRecommendations(2L, 10).isEmpty()).isTrue();
+        service.rebuildModel();
+        assertThat(QueryCounter.count(() -> assertThat(service.getRecommendations(2L, 10).stream()
+                .map(FilmDto::getId)
+                .toList()).isEqualTo(List.of(2L)))).isEqualTo(2);
+        assertThat(service.getRecommendations(1L, 10).isEmpty()).isTrue();
+        assertThat(service.getRecommendations(3L, 10).isEmpty()).isTrue();
+        assertThatThrownBy(() -> service.getRecommendations(100L, 10))
+                .isInstanceOf(NotFoundException.class);
+    }
+
+    @Test
+    public void testFriendMutationsAreIdempotent() {
+        userStorage.addFriend(1L, 2L);
+        userStorage.addFriend(1L, 2L);
+        assertThat(count("SELECT COUNT(*) FROM user_friends")).isEqualTo(2L);
+        assertThat(userStorage.getFriendsByUser(2L).isEmpty()).isTrue();
+
+        // встречная заявка подтверждает обратную запись
+        userStorage.addFriend(2L, 1L);
+        assertThat(count("SELECT COUNT(*) FROM user_friends")).isEqualTo(2L);
+        assertThat(userStorage.getFriendsByUser(2L).iterator().next().getId()).isEqualTo(1L);
+
+        userStorage.deleteFriend(1L, 2L);
+        userStorage.deleteFriend(1L, 2L);
+        assertThat(userStorage.getFriendsByUser(1L).isEmpty()).isTrue();
+
+        assertThatThrownBy(() -> userStorage.addFriend(1L, 100L))
+                .isInstanceOf(NotFoundException.class)
+                .hasMessageContaining("Пользователь с id = 100");
+        assertThatThrownBy(() -> userStorage.deleteFriend(100L, 1L))
+                .isInstanceOf(NotFoundException.class);
+    }
+
     @Test
     public void testGetCommonFriends() {
         Collection<User> commonFriendsBefore = userStorage.getCommonFriends(2L, 3L);
@@ -212,6 +414,37 @@ class FilmoRateApplicationTests {
         assertThat(names.contains("filmName")).isTrue();
     }
 
+    @Test
+    public void testFindFilmsPage() {
+        List<Long> firstPage = filmStorage.findPage(0, 1).stream()
+                .map(Film::getId)
+                .toList();
+        assertThat(firstPage).isEqualTo(List.of(1L));
+
+        List<Long> secondPage = filmStorage.findPage(1, 10).stream()
+                .map(Film::getId)
+                .toList();
+        assertThat(secondPage).isEqualTo(List.of(2L));
+        assertThat(userStorage.findPage(2, 10).size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testStreamAllFilmsWithGenres() {
+        genreDbStorage.createFilmGenres(1L, List.of(3, 1));
+        genreDbStorage.createFilmGenres(2L, List.of(2));
+
+        List<Film> streamed = new ArrayList<>();
+        filmStorage.streamAll(streamed::add);
+
+        assertThat(streamed.size()).isEqualTo(2);
+        assertThat(streamed.get(0).getGenres().stream().map(Genre::getId).toList()).isEqualTo(List.of(1, 3));
+        assertThat(streamed.get(1).getGenres().stream().map(Genre::getName).toList()).isEqualTo(List.of("Драма"));
+
+        List<User> users = new ArrayList<>();
+        userStorage.streamAll(users::add);
+        assertThat(users.size()).isEqualTo(3);
+    }
+
     @Test
     public void testUpdateFilm() {
         film.setName("Updated name");
@@ -250,6 +483,150 @@ class FilmoRateApplicationTests {
         assertThat(rowsAfter.isEmpty()).isTrue();
     }
 
+    @Test
+    public void testLikesCountFollowsLikes() {
+        filmStorage.addLikeByUser(1L, 1L);
+        filmStorage.addLikeByUser(1L, 2L);
+        filmStorage.addLikeByUser(2L, 3L);
+        filmStorage.deleteLikeByUser(1L, 2L);
+        filmStorage.deleteLikeByUser(1L, 3L);
+        assertThat(likesCount(1L)).isEqualTo(1);
+        assertThat(likesCount(2L)).isEqualTo(1);
+    }
+
+    @Test
+    public void testLikeMutationsAreIdempotent() {
+        assertThat(filmStorage.addLikeByUser(1L, 1L)).isTrue();
+        assertThat(filmStorage.addLikeByUser(1L, 1L)).isFalse();
+        assertThat(likesCount(1L)).isEqualTo(1);
+
+        assertThat(filmStorage.deleteLikeByUser(1L, 1L)).isTrue();
+        assertThat(filmStorage.deleteLikeByUser(1L, 1L)).isFalse();
+        assertThat(likesCount(1L)).isEqualTo(0);
+
+        assertThatThrownBy(() -> filmStorage.addLikeByUser(1L, 100L))
+                .isInstanceOf(NotFoundException.class)
+                .hasMessageContaining("Пользователь с id = 100");
+        assertThatThrownBy(() -> filmStorage.addLikeByUser(100L, 1L))
+                .isInstanceOf(NotFoundException.class)
+                .hasMessageContaining("Фильм с id = 100");
+        assertThatThrownBy(() -> filmStorage.deleteLikeByUser(1L, 100L))
+                .isInstanceOf(NotFoundException.class);
+        assertThat(likesCount(1L)).isEqualTo(0);
+    }
+
+    @Test
+    public void testAddLikesBatch() {
+        filmStorage.addLikeByUser(1L, 1L);
+        List<Like> likes = List.of(new Like(1L, 1L), new Like(1L, 2L), new Like(2L, 2L), new Like(1L, 2L),
+                new Like(100L, 1L), new Like(2L, 100L));
+
+        List<LikeStatus> statuses = filmStorage.addLikes(likes);
+
+        assertThat(statuses).isEqualTo(List.of(LikeStatus.DUPLICATE, LikeStatus.INSERTED, LikeStatus.INSERTED,
+                LikeStatus.DUPLICATE, LikeStatus.UNKNOWN_FILM, LikeStatus.UNKNOWN_USER));
+        assertThat(likesCount(1L)).isEqualTo(2);
+        assertThat(likesCount(2L)).isEqualTo(1);
+        assertThat(count("SELECT COUNT(*) FROM likes")).isEqualTo(3L);
+    }
+
+    @Test
+    public void testLikeWriteBehind(@TempDir Path dir) throws IOException {
+        Path logPath = dir.resolve("likes.log");
+        List<Object> events = new ArrayList<>();
+        LikeWriteBehind writeBehind = new LikeWriteBehind(filmStorage, transactionManager, events::add, logPath, 4);
+        writeBehind.like(1L, 1L);
+        writeBehind.like(1L, 2L);
+        writeBehind.unlike(1L, 2L);
+        writeBehind.like(2L, 3L);
+        assertThat(count("SELECT COUNT(*) FROM likes")).isEqualTo(0L);
+
+        // пятая запись не помещается в журнал и выгружает первые четыре
+        writeBehind.like(2L, 100L);
+        assertThat(count("SELECT COUNT(*) FROM likes")).isEqualTo(2L);
+        assertThat(likesCount(1L)).isEqualTo(1);
+        assertThat(((LikesFlushedEvent) events.getFirst()).likeCountChanges()).isEqualTo(Map.of(1L, 1, 2L, 1));
+
+        // процесс «упал» без выгрузки: новый экземпляр дочитывает журнал при старте
+        writeBehind.unlike(1L, 1L);
+        LikeWriteBehind restarted = new LikeWriteBehind(filmStorage, transactionManager, events::add, logPath, 4);
+        restarted.replay();
+        assertThat(count("SELECT COUNT(*) FROM likes")).isEqualTo(1L);
+        assertThat(likesCount(1L)).isEqualTo(0);
+        assertThat(restarted.flush()).isEqualTo(0);
+        restarted.close();
+
+        // «упавший» экземпляр закрывается последним и повторно выгружает уже перенесенную отмену: без изменений
+        writeBehind.close();
+        assertThat(count("SELECT COUNT(*) FROM likes")).isEqualTo(1L);
+        assertThat(likesCount(1L)).isEqualTo(0);
+    }
+
+    @Test
+    public void testLikeWriteBehindBeforeBatch(@TempDir Path dir) throws IOException {
+        filmStorage.addLikeByUser(1L, 1L);
+        FilmService filmService = filmService(jdbcTemplate);
+        LikeWriteBehind writeBehind = new LikeWriteBehind(filmStorage, transactionManager, event -> { },
+                dir.resolve("likes.log"), 100);
+        try {
+            filmService.setLikeWriteBehind(writeBehind, new UserService(userStorage));
+            // отмена ждет в журнале, повторный лайк приходит пакетом
+            filmService.deleteLikeByUser(1L, 1L);
+            LikeDto like = new LikeDto();
+            like.setFilmId(1L);
+            like.setUserId(1L);
+
+            assertThat(filmService.addLikes(List.of(like)).getFirst().getStatus()).isEqualTo(LikeStatus.INSERTED);
+            writeBehind.flush();
+            assertThat(count("SELECT COUNT(*) FROM likes WHERE film_id = 1 AND user_id = 1")).isEqualTo(1L);
+            assertThat(likesCount(1L)).isEqualTo(1);
+
+            // лайк несуществующего пользователя отклоняется до записи в журнал, как и без отложенной записи
+            assertThatThrownBy(() -> filmService.addLikeByUser(1L, 100L)).isInstanceOf(NotFoundException.class);
+            assertThatThrownBy(() -> filmService.deleteLikeByUser(1L, 100L)).isInstanceOf(NotFoundException.class);
+            assertThat(writeBehind.flush()).isEqualTo(0);
+        } finally {
+            writeBehind.close();
+        }
+    }
+
+    @Test
+    public void testRolledBackFilmNotRanked(@TempDir Path dir) throws IOException {
+        FilmService filmService = filmService(jdbcTemplate);
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        Long filmId = transaction.execute(status -> {
+            status.setRollbackOnly();
+            return filmService.create(newFilmRequest(1)).getId();
+        });
+
+        // при отложенной записи лайк проверяется по рейтингу: откаченного фильма там быть не должно
+        LikeWriteBehind writeBehind = new LikeWriteBehind(filmStorage, transactionManager, event -> { },
+                dir.resolve("likes.log"), 100);
+        try {
+            filmService.setLikeWriteBehind(writeBehind, new UserService(userStorage));
+            assertThatThrownBy(() -> filmService.addLikeByUser(filmId, 1L)).isInstanceOf(NotFoundException.class);
+        } finally {
+            writeBehind.close();
+        }
+    }
+
+    @Test
+    public void testReconcileLikeCounts() {
+        jdbcTemplate.update("INSERT INTO likes (film_id, user_id) VALUES (2, 1), (2, 2)");
+        jdbcTemplate.update("UPDATE films SET likes_count = 5 WHERE id = 1");
+
+        assertThat(filmStorage.reconcileLikeCounts()).isEqualTo(2);
+        assertThat(likesCount(1L)).isEqualTo(0);
+        assertThat(likesCount(2L)).isEqualTo(2);
+        assertThat(filmStorage.getPopularFilms(1).iterator().next().getId()).isEqualTo(2L);
+        assertThat(filmStorage.reconcileLikeCounts()).isEqualTo(0);
+    }
+
+    private int likesCount(long filmId) {
+        return jdbcTemplate.queryForObject("SELECT likes_count FROM films WHERE id = ?", Integer.class, filmId);
+    }
+
     @Test
     public void testFindAllMpa() {
         Collection<Rating> allMpa = ratingDbStorage.findAll();
@@ -297,4 +674,438 @@ class FilmoRateApplicationTests {
         assertThat(filmGenresAfterDeleting.isEmpty()).isTrue();
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testFindGenresByFilmIds() {
+        genreDbStorage.createFilmGenres(1L, 2);
+        genreDbStorage.createFilmGenres(1L, 1);
+
+        Map<Long, Set<Genre>> genresByFilm = genreDbStorage.findAllByFilmIds(List.of(1L, 2L));
+        assertThat(genresByFilm.containsKey(2L)).isFalse();
+        List<Integer> ids = genresByFilm.get(1L).stream()
+                .map(Genre::getId)
+                .toList();
+        assertThat(ids).isEqualTo(List.of(1, 2));
+    }
+
+    @Test
+    public void testFilmListQueryCountDoesNotDependOnFilmCount() {
+        CountingJdbcTemplate countingJdbc = new CountingJdbcTemplate(jdbcTemplate.getDataSource());
+        FilmService filmService = filmService(countingJdbc);
+        genreDbStorage.createFilmGenres(1L, 1);
+
+        int findAllQueries = countingJdbc.count(filmService::findAll);
+        int popularQueries = countingJdbc.count(() -> filmService.getPopularFilms(100));
+
+        for (int i = 0; i < 20; i++) {
+            Film another = new Film();
+            another.setName("another" + i);
+            another.setDuration(100);
+            another.setReleaseDate(LocalDate.now());
+            another.setMpa(film.getMpa());
+            filmStorage.create(another);
+            genreDbStorage.createFilmGenres(another.getId(), i % 6 + 1);
+        }
+        filmService.rebuildPopularityIndex();
+
+        assertThat(countingJdbc.count(filmService::findAll)).isEqualTo(findAllQueries);
+        assertThat(countingJdbc.count(() -> filmService.getPopularFilms(100))).isEqualTo(popularQueries);
+        assertThat(filmService.findAll().size()).isEqualTo(22);
+        assertThat(filmService.getPopularFilms(100).size()).isEqualTo(22);
+    }
+
+    @Test
+    public void testPopularFilmsFromIndex() {
+        FilmService filmService = filmService(jdbcTemplate);
+        FilmDto third = filmService.create(newFilmRequest(0));
+
+        filmService.addLikeByUser(third.getId(), 1L);
+        filmService.addLikeByUser(third.getId(), 2L);
+        filmService.addLikeByUser(2L, 1L);
+        assertThat(popularIds(filmService, 10)).isEqualTo(List.of(third.getId(), 2L, 1L));
+
+        filmService.deleteLikeByUser(third.getId(), 1L);
+        filmService.deleteLikeByUser(third.getId(), 2L);
+        assertThat(popularIds(filmService, 2)).isEqualTo(List.of(2L, 1L));
+
+        // индекс, построенный заново по таблице likes, дает тот же порядок, что и SQL-запрос
+        filmService.rebuildPopularityIndex();
+        List<Long> sqlOrder = filmStorage.getPopularFilms(10).stream()
+                .map(Film::getId)
+                .toList();
+        assertThat(popularIds(filmService, 10)).isEqualTo(sqlOrder);
+    }
+
+    @Test
+    public void testPopularityRebuildKeepsConcurrentChanges() {
+        PopularityIndex index = new PopularityIndex();
+        index.rebuild(() -> Map.of(1L, 1, 2L, 2));
+        // лайки и новый фильм приходят, пока счетчики читаются из базы
+        index.rebuild(() -> {
+            Map<Long, Integer> counts = Map.of(1L, 1, 2L, 2);
+            index.increment(1L);
+            index.increment(1L);
+            index.addFilm(3L);
+            index.increment(3L);
+            return counts;
+        });
+        assertThat(index.top(10)).isEqualTo(List.of(1L, 2L, 3L));
+
+        // неудачное чтение оставляет индекс прежним
+        assertThatThrownBy(() -> index.rebuild(() -> {
+            throw new IllegalStateException("База недоступна");
+        })).isInstanceOf(IllegalStateException.class);
+        index.increment(2L);
+        index.increment(2L);
+        assertThat(index.top(10)).isEqualTo(List.of(2L, 1L, 3L));
+        index.rebuild(() -> Map.of(3L, 5));
+        assertThat(index.top(10)).isEqualTo(List.of(3L));
+    }
+
+    private static List<Long> popularIds(FilmService filmService, int count) {
+        return filmService.getPopularFilms(count).stream()
+                .map(FilmDto::getId)
+                .toList();
+    }
+
+    @Test
+    public void testBatchFilmGenres() {
+        genreDbStorage.createFilmGenres(1L, List.of(1, 2, 3));
+        assertThat(genreDbStorage.findAllByFilmId(1L).size()).isEqualTo(3);
+
+        genreDbStorage.deleteFilmGenres(1L, List.of(1, 3));
+        List<Integer> ids = genreDbStorage.findAllByFilmId(1L).stream()
+                .map(Genre::getId)
+                .toList();
+        assertThat(ids).isEqualTo(List.of(2));
+    }
+
+    @Test
+    public void testSaveFilmRoundTripsDoNotDependOnGenreCount() {
+        CountingJdbcTemplate countingJdbc = new CountingJdbcTemplate(jdbcTemplate.getDataSource());
+        FilmService filmService = filmService(countingJdbc);
+
+        int oneGenre = countingJdbc.count(() -> filmService.create(newFilmRequest(1)));
+        FilmDto[] created = new FilmDto[1];
+        int sixGenres = countingJdbc.count(() -> created[0] = filmService.create(newFilmRequest(6)));
+        assertThat(sixGenres).isEqualTo(oneGenre);
+        assertThat(created[0].getGenres().size()).isEqualTo(6);
+
+        UpdateFilmRequest update = new UpdateFilmRequest();
+        update.setId(created[0].getId());
+        update.setGenres(genres(3));
+        int changed = countingJdbc.count(() -> filmService.update(update));
+        int unchanged = countingJdbc.count(() -> filmService.update(update));
+        assertThat(unchanged).isLessThan(changed);
+        assertThat(genreDbStorage.findAllByFilmId(created[0].getId()).size()).isEqualTo(3);
+    }
+
+    @Test
+    public void testReferenceDataCache() {
+        ReferenceDataCache cache = new ReferenceDataCache(genreDbStorage, ratingDbStorage);
+        assertThat(cache.getGenres().size()).isEqualTo(6);
+        assertThat(cache.getRatings().size()).isEqualTo(5);
+        assertThat(cache.getGenre(1).getName()).isEqualTo("Комедия");
+        assertThat(cache.getRating(1).getName()).isEqualTo("G");
+        assertThat(cache.getGenre(100)).isNull();
+        assertThat(cache.getRating(null)).isNull();
+
+        jdbcTemplate.update("INSERT INTO genres (name) VALUES ('Вестерн')");
+        assertThat(cache.getGenres().size()).isEqualTo(6);
+        cache.refresh();
+        assertThat(cache.getGenres().size()).isEqualTo(7);
+    }
+
+    @Test
+    public void testSqlMetrics() {
+        SqlMetrics sqlMetrics = new SqlMetrics(new SimpleMeterRegistry());
+        FilmDbStorage films = new FilmDbStorage(jdbcTemplate, new FilmRowMapper());
+        films.setSqlMetrics(sqlMetrics);
+
+        films.getPopularFilms(10);
+        films.getPopularFilms(1);
+        films.findAllByIds(List.of(1L, 2L));
+        films.getLikeCounts();
+        films.streamAll(film -> { });
+
+        Map<String, SqlQueryStatsDto> stats = new HashMap<>();
+        sqlMetrics.report().forEach(query -> stats.put(query.getQuery(), query));
+        SqlQueryStatsDto popular = stats.get("FilmDbStorage.FIND_POPULAR_QUERY");
+        assertThat(popular.getCount()).isEqualTo(2L);
+        assertThat(popular.getRows()).isEqualTo(3L);
+        assertThat(popular.getRepository()).isEqualTo("FilmDbStorage");
+        assertThat(popular.getP999Ms()).isGreaterThanOrEqualTo(popular.getP50Ms());
+        // запрос, собранный из шаблона с IN (%s), учитывается под именем шаблона
+        assertThat(stats.get("FilmDbStorage.FIND_ALL_BY_IDS_QUERY").getRows()).isEqualTo(2L);
+        assertThat(stats.get("FilmDbStorage.FIND_LIKE_COUNTS_QUERY").getRows()).isEqualTo(2L);
+        assertThat(stats.get("FilmDbStorage.FIND_ALL_WITH_GENRES_QUERY").getCount()).isEqualTo(1L);
+    }
+
+    @Test
+    public void testControllerQueryBudgets() {
+        FilmController films = filmController(newFilmJsonCache(1 << 20));
+        UserService userService = new UserService(userStorage);
+        UserController users = new UserController(userService);
+        RecommendationController recommendations = new RecommendationController(
+                new FilmRecommendationService(filmStorage, filmService(jdbcTemplate), userService, 20, 600_000));
+        users.addFriend(1L, 3L);
+        users.addFriend(2L, 3L);
+
+        UpdateFilmRequest updateFilm = new UpdateFilmRequest();
+        updateFilm.setId(1L);
+        updateFilm.setName("updated");
+        updateFilm.setGenres(genres(2));
+        NewUserRequest newUser = NewUserRequest.builder()
+                .email("budget@mail.ru")
+                .login("budget")
+                .birthday(LocalDate.now())
+                .build();
+        UpdateUserRequest updateUser = UpdateUserRequest.builder()
+                .id(1L)
+                .name("updated")
+                .build();
+
+        assertWithinBudget(films, "findPage", () -> films.findPage(0, 10));
+        assertWithinBudget(films, "create", () -> films.create(newFilmRequest(3)));
+        assertWithinBudget(films, "update", () -> films.update(updateFilm));
+        assertWithinBudget(films, "findFilmById", () -> films.findFilmById(1L, webRequest(null)));
+        assertWithinBudget(films, "addLikeByUser", () -> films.addLikeByUser(1L, 1L));
+        assertWithinBudget(films, "deleteLikeByUser", () -> films.deleteLikeByUser(1L, 1L));
+        assertWithinBudget(films, "getPopularFilms", () -> films.getPopularFilms(10));
+        assertWithinBudget(users, "findAll", users::findAll);
+        assertWithinBudget(users, "findPage", () -> users.findPage(0, 10));
+        assertWithinBudget(users, "create", () -> users.create(newUser));
+        assertWithinBudget(users, "update", () -> users.update(updateUser));
+        assertWithinBudget(users, "findUserById", () -> users.findUserById(1L));
+        assertWithinBudget(users, "addFriend", () -> users.addFriend(1L, 2L));
+        assertWithinBudget(users, "deleteFriend", () -> users.deleteFriend(1L, 2L));
+        assertWithinBudget(users, "getFriendsByUser", () -> users.getFriendsByUser(1L));
+        assertWithinBudget(users, "getCommonFriends", () -> users.getCommonFriends(1L, 2L));
+        assertWithinBudget(users, "getFriendSuggestions", () -> users.getFriendSuggestions(1L, 10));
+        assertWithinBudget(recommendations, "getRecommendations", () -> recommendations.getRecommendations(1L, 10));
+    }
+
+    @Test
+    public void testFilmETag() {
+        ReferenceDataCache references = new ReferenceDataCache(genreDbStorage, ratingDbStorage);
+        FilmController films = new FilmController(filmService(jdbcTemplate, references), newFilmJsonCache(1 << 20));
+        ServletWebRequest first = webRequest(null);
+        assertThat(films.findFilmById(1L, first)).isNotNull();
+        String etag = first.getResponse().getHeader(HttpHeaders.ETAG);
+        assertThat(etag).isNotNull();
+
+        // совпавший ETag: 304 после одного запроса версии, без чтения фильма и жанров
+        ServletWebRequest repeated = webRequest(etag);
+        assertThat(QueryCounter.count(() -> assertThat(films.findFilmById(1L, repeated)).isNull())).isEqualTo(1);
+        assertThat(repeated.getResponse().getStatus()).isEqualTo(304);
+
+        // лайк и изменение жанров меняют версию
+        filmStorage.addLikeByUser(1L, 2L);
+        String likedETag = assertModified(films, etag);
+        UpdateFilmRequest updateFilm = new UpdateFilmRequest();
+        updateFilm.setId(1L);
+        updateFilm.setGenres(genres(3));
+        films.update(updateFilm);
+        String updatedETag = assertModified(films, likedETag);
+        assertThat(updatedETag).isNotEqualTo(etag);
+
+        // переименованный жанр виден в теле фильма: после перечитывания справочников ETag другой,
+        // а готовый JSON со старым названием из кэша не отдается
+        jdbcTemplate.update("UPDATE genres SET name = 'Комедия (обновлено)' WHERE id = 1");
+        references.refresh();
+        assertModified(films, updatedETag);
+        assertThat(new String(films.findFilmById(1L, webRequest(null)).getBody(), StandardCharsets.UTF_8))
+                .contains("Комедия (обновлено)");
+    }
+
+    @Test
+    public void testFilmETagMatchesReturnedVersion() {
+        ReferenceDataCache references = new ReferenceDataCache(genreDbStorage, ratingDbStorage);
+        // фильм меняется между запросом версии и чтением фильма
+        FilmService changing = new FilmService(new FilmDbStorage(jdbcTemplate, new FilmRowMapper()),
+                new GenreDbStorage(jdbcTemplate, new GenreRowMapper()), references) {
+            @Override
+            public FilmDto findFilmById(Long id) {
+                jdbcTemplate.update("UPDATE films SET description = 'changed', version = version + 1 WHERE id = ?", id);
+                return super.findFilmById(id);
+            }
+        };
+        FilmController films = new FilmController(changing, newFilmJsonCache(1 << 20));
+        ServletWebRequest request = webRequest(null);
+        assertThat(new String(films.findFilmById(1L, request).getBody())).contains("changed");
+        assertThat(request.getResponse().getHeader(HttpHeaders.ETAG)).isEqualTo("\"1-"
+                + count("SELECT version FROM films WHERE id = 1") + "-" + references.getVersion() + "\"");
+    }
+
+    @Test
+    public void testFilmJsonCache() {
+        FilmJsonCache cache = newFilmJsonCache(1 << 20);
+        FilmController films = filmController(cache);
+        byte[] json = films.findFilmById(1L, webRequest(null)).getBody();
+        assertThat(cache.size()).isEqualTo(1);
+
+        // попадание: только запрос версии, тело то же
+        byte[][] cached = new byte[1][];
+        assertThat(QueryCounter.count(() -> cached[0] = films.findFilmById(1L, webRequest(null)).getBody()))
+                .isEqualTo(1);
+        assertThat(cached[0]).isSameAs(json);
+        assertThat(cache.hitRatio()).isEqualTo(0.5);
+
+        // лайк через сервис удаляет запись, изменение мимо сервиса дает промах по версии
+        films.addLikeByUser(1L, 2L);
+        assertThat(cache.size()).isEqualTo(0);
+        films.findFilmById(1L, webRequest(null));
+        jdbcTemplate.update("UPDATE films SET description = 'changed', version = version + 1 WHERE id = 1");
+        assertThat(new String(films.findFilmById(1L, webRequest(null)).getBody())).contains("changed");
+
+        // в кэш помещается один фильм: второй вытесняет первый
+        FilmJsonCache small = newFilmJsonCache(json.length + 1);
+        FilmController smallFilms = filmController(small);
+        smallFilms.findFilmById(1L, webRequest(null));
+        smallFilms.findFilmById(2L, webRequest(null));
+        assertThat(small.size()).isEqualTo(1);
+        assertThat(small.bytes()).isLessThanOrEqualTo(json.length + 1L);
+    }
+
+    @Test
+    public void testDatasetGenerator() {
+        DatasetProperties properties = new DatasetProperties();
+        properties.setUsers(300);
+        properties.setFilms(50);
+        properties.setLikes(3_000);
+        properties.setFriendsPerUser(6);
+        properties.setClusterSize(30);
+        properties.setBatchSize(128);
+        FilmService filmService = filmService(jdbcTemplate);
+        long likesBefore = count("SELECT COUNT(*) FROM likes");
+
+        new DatasetGenerator(jdbcTemplate, transactionManager, filmService, properties).generate();
+
+        assertThat(count("SELECT COUNT(*) FROM users")).isEqualTo(303L);
+        assertThat(count("SELECT COUNT(*) FROM films")).isEqualTo(52L);
+        assertThat(count("SELECT COUNT(*) FROM likes") - likesBefore).isEqualTo(3_000L);
+        // счетчики лайков заполнены вместе с лайками
+        assertThat(count("""
+                SELECT COUNT(*) FROM films f
+                WHERE f.likes_count <> (SELECT COUNT(*) FROM likes l WHERE l.film_id = f.id)""")).isEqualTo(0L);
+        // у каждой дружбы есть обратная запись, как после UserDbStorage.addFriend
+        assertThat(count("""
+                SELECT COUNT(*) FROM user_friends uf
+                WHERE NOT EXISTS (SELECT 1 FROM user_friends r
+                WHERE r.user_id = uf.friend_id AND r.friend_id = uf.user_id)""")).isEqualTo(0L);
+        // при skew = 1 самый популярный фильм собирает в разы больше лайков, чем в среднем
+        assertThat(count("SELECT MAX(likes_count) FROM films")).isGreaterThan(3_000L / 50 * 3);
+        assertThat(popularIds(filmService, 1).getFirst())
+                .isEqualTo(count("SELECT id FROM films ORDER BY likes_count DESC, id LIMIT 1"));
+    }
+
+    private static void assertWithinBudget(Object controller, String method, Runnable call) {
+        QueryBudget budget = Arrays.stream(controller.getClass().getMethods())
+                .filter(m -> m.getName().equals(method))
+                .findFirst()
+                .map(m -> m.getAnnotation(QueryBudget.class))
+                .orElseThrow();
+        assertThat(QueryCounter.count(call)).as(method).isLessThanOrEqualTo(budget.value());
+    }
+
+    private static ServletWebRequest webRequest(String ifNoneMatch) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/films/1");
+        if (ifNoneMatch != null) {
+            request.addHeader(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+        }
+        return new ServletWebRequest(request, new MockHttpServletResponse());
+    }
+
+    // фильм 1 с устаревшим ETag отдается целиком с новым ETag
+    private static String assertModified(FilmController films, String staleETag) {
+        ServletWebRequest request = webRequest(staleETag);
+        assertThat(films.findFilmById(1L, request)).isNotNull();
+        String etag = request.getResponse().getHeader(HttpHeaders.ETAG);
+        assertThat(request.getResponse().getStatus()).isEqualTo(200);
+        assertThat(etag).isNotEqualTo(staleETag);
+        return etag;
+    }
+
+    private long count(String query) {
+        return jdbcTemplate.queryForObject(query, Long.class);
+    }
+
+    private FilmController filmController(FilmJsonCache cache) {
+        FilmService filmService = filmService(jdbcTemplate);
+        filmService.setFilmJsonCache(cache);
+        return new FilmController(filmService, cache);
+    }
+
+    private static FilmJsonCache newFilmJsonCache(long maxBytes) {
+        return new FilmJsonCache(JsonMapper.builder().findAndAddModules().build(), new SimpleMeterRegistry(), maxBytes);
+    }
+
+    private FilmService filmService(JdbcTemplate jdbc) {
+        return filmService(jdbc, new ReferenceDataCache(genreDbStorage, ratingDbStorage));
+    }
+
+    private FilmService filmService(JdbcTemplate jdbc, ReferenceDataCache references) {
+        return new FilmService(new FilmDbStorage(jdbc, new FilmRowMapper()),
+                new GenreDbStorage(jdbc, new GenreRowMapper()), references);
+    }
+
+    private NewFilmRequest newFilmRequest(int genreCount) {
+        return NewFilmRequest.builder()
+                .name("genres" + genreCount)
+                .description("description")
+                .releaseDate(LocalDate.now())
+                .duration(100)
+                .mpa(film.getMpa())
+                .genres(genres(genreCount))
+                .build();
+    }
+
+    private static Set<Genre> genres(int count) {
+        Set<Genre> genres = new HashSet<>();
+        for (int id = 1; id <= count; id++) {
+            Genre genre = new Genre();
+            genre.setId(id);
+            genres.add(genre);
+        }
+        return genres;
+    }
+
+    // считает обращения к базе (запросы, изменения и пакеты), которые идут через JdbcTemplate
+    private static class CountingJdbcTemplate extends JdbcTemplate {
+        private final AtomicInteger queries = new AtomicInteger();
+
+        CountingJdbcTemplate(DataSource dataSource) {
+            super(dataSource);
+        }
+
+        @Override
+        public <T> T query(PreparedStatementCreator psc, PreparedStatementSetter pss, ResultSetExtractor<T> rse) {
+            queries.incrementAndGet();
+            return super.query(psc, pss, rse);
+        }
+
+        @Override
+        protected int update(PreparedStatementCreator psc, PreparedStatementSetter pss) {
+            queries.incrementAndGet();
+            return super.update(psc, pss);
+        }
+
+        @Override
+        public int update(PreparedStatementCreator psc, KeyHolder generatedKeyHolder) {
+            queries.incrementAndGet();
+            return super.update(psc, generatedKeyHolder);
+        }
+
+        @Override
+        public int[] batchUpdate(String sql, BatchPreparedStatementSetter pss) {
+            queries.incrementAndGet();
+            return super.batchUpdate(sql, pss);
+        }
+
+        int count(Runnable action) {
+            queries.set(0);
+            action.run();
+            return queries.get();
+        }
+    }
+}
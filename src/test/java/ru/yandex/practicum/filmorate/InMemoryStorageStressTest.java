@@ -0,0 +1,308 @@
+package ru.yandex.practicum.filmorate;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.LoggerFactory;
+import ru.yandex.practicum.filmorate.collection.LongFlagMap;
+import ru.yandex.practicum.filmorate.collection.LongHashSet;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.persistence.MemoryStoragePersistence;
+import ru.yandex.practicum.filmorate.service.UserService;
+import ru.yandex.practicum.filmorate.storage.InMemoryFilmStorage;
+import ru.yandex.practicum.filmorate.storage.InMemoryUserStorage;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InMemoryStorageStressTest {
+
+    private static final int THREADS = 8;
+    private static final int USERS = 2_000;
+    private static final int FILMS = 20;
+
+    private static final Logger STORAGE_LOG = (Logger) LoggerFactory.getLogger("ru.yandex.practicum.filmorate.storage");
+    private static Level storageLogLevel;
+
+    private final InMemoryUserStorage userStorage = new InMemoryUserStorage();
+    private final InMemoryFilmStorage filmStorage = new InMemoryFilmStorage(userStorage);
+
+    // хранилища пишут в лог каждое создание, сотни тысяч строк только замедлили бы тест
+    @BeforeAll
+    static void muteStorageLog() {
+        storageLogLevel = STORAGE_LOG.getLevel();
+        STORAGE_LOG.setLevel(Level.WARN);
+    }
+
+    @AfterAll
+    static void restoreStorageLog() {
+        STORAGE_LOG.setLevel(storageLogLevel);
+    }
+
+    @Test
+    void concurrentCreates_AssignUniqueIds() throws Exception {
+        runConcurrently(USERS, i -> userStorage.create(user(i)));
+
+        Set<Long> ids = userStorage.findAll()
+                .stream()
+                .map(User::getId)
+                .collect(Collectors.toSet());
+        assertEquals(USERS, ids.size(), "Каждый пользователь должен получить свой id");
+        assertEquals(USERS, userStorage.findPage(0, USERS * 2).size());
+        assertEquals((long) USERS, ids.stream().mapToLong(Long::longValue).max().orElse(0));
+    }
+
+    @Test
+    void concurrentLikes_AreNotLost() throws Exception {
+        runConcurrently(USERS, i -> userStorage.create(user(i)));
+        runConcurrently(FILMS, i -> filmStorage.create(film(i)));
+
+        // каждый пользователь лайкает все фильмы, потоки одновременно пишут в одни и те же множества лайков
+        runConcurrently(USERS * FILMS, i -> filmStorage.addLikeByUser((long) i % FILMS + 1, (long) i / FILMS + 1));
+        for (Film film : filmStorage.findAll()) {
+            assertEquals(USERS, film.getLikes().size(), "Лайки фильма " + film.getId() + " потеряны");
+        }
+        assertEquals(FILMS, filmStorage.getPopularFilms(FILMS).size());
+        assertTrue(filmStorage.getLikeCounts().values().stream().allMatch(count -> count == USERS));
+
+        runConcurrently(USERS * FILMS, i -> filmStorage.deleteLikeByUser((long) i % FILMS + 1, (long) i / FILMS + 1));
+        assertTrue(filmStorage.getLikeCounts().values().stream().allMatch(count -> count == 0));
+    }
+
+    @Test
+    void concurrentFriendships_AreNotLost() throws Exception {
+        runConcurrently(USERS, i -> userStorage.create(user(i)));
+
+        // первый пользователь дружит со всеми, остальные со следующим по id: записи в обе стороны
+        runConcurrently(USERS - 1, i -> {
+            userStorage.addFriend(1L, (long) i + 2);
+            userStorage.addFriend((long) i + 2, (long) (i + 1) % (USERS - 1) + 2);
+        });
+        assertEquals(USERS - 1, userStorage.getFriendsByUser(1L).size());
+        for (long id = 2; id <= USERS; id++) {
+            assertEquals(3, userStorage.getFriendsByUser(id).size(), "Друзья пользователя " + id + " потеряны");
+        }
+    }
+
+    @Test
+    void concurrentFriendChanges_KeepGraphInSyncWithStorage() throws Exception {
+        CountDownLatch added = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        // добавление дружбы 2 -> 3 задерживается между записью в хранилище и обновлением графа
+        InMemoryUserStorage storage = new InMemoryUserStorage() {
+            @Override
+            public void addFriend(Long id, Long friendId) {
+                super.addFriend(id, friendId);
+                if (id == 2L) {
+                    added.countDown();
+                    try {
+                        release.await(1, TimeUnit.MINUTES);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        };
+        for (int i = 0; i < 3; i++) {
+            storage.create(user(i));
+        }
+        UserService userService = new UserService(storage);
+        userService.addFriend(3L, 1L);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> add = executor.submit(() -> userService.addFriend(2L, 3L));
+            assertTrue(added.await(1, TimeUnit.MINUTES));
+            // без блокировки пары удаление целиком прошло бы внутри добавления и граф сохранил бы удаленную дружбу
+            Future<?> delete = executor.submit(() -> userService.deleteFriend(2L, 3L));
+            try {
+                delete.get(200, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // удаление ждет, пока добавление закончит обновлять граф
+            }
+            release.countDown();
+            add.get(1, TimeUnit.MINUTES);
+            delete.get(1, TimeUnit.MINUTES);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertTrue(storage.getFriendsByUser(2L).isEmpty());
+        assertTrue(userService.getCommonFriends(2L, 1L).isEmpty(), "Граф дружбы разошелся с хранилищем");
+
+        // изменения мимо сервиса видны после перестроения
+        storage.restoreFriendship(2L, 3L, true);
+        userService.rebuildFriendGraph();
+        assertEquals(3L, userService.getCommonFriends(2L, 1L).iterator().next().getId());
+    }
+
+    @Test
+    void persistence_RestoresSnapshotAndLogTail(@TempDir Path directory) throws Exception {
+        MemoryStoragePersistence persistence = new MemoryStoragePersistence(filmStorage, userStorage, directory);
+        runConcurrently(USERS, i -> userStorage.create(user(i)));
+        runConcurrently(FILMS, i -> filmStorage.create(film(i)));
+        // снимок пишется посреди потока лайков: часть попадет в снимок, остальное только в журнал
+        runConcurrently(USERS * FILMS, i -> {
+            filmStorage.addLikeByUser((long) i % FILMS + 1, (long) i / FILMS + 1);
+            if (i == USERS * FILMS / 2) {
+                persistence.snapshot();
+            }
+        });
+        // второй снимок — посреди дружб, которые меняют множества друзей сразу двух пользователей
+        runConcurrently(USERS - 1, i -> {
+            userStorage.addFriend((long) i + 1, (long) i + 2);
+            if (i == USERS / 2) {
+                persistence.snapshot();
+            }
+            if (i % 3 == 0) {
+                filmStorage.deleteLikeByUser((long) i % FILMS + 1, (long) i + 1);
+                userStorage.deleteFriend((long) i + 1, (long) i + 2);
+            }
+        });
+        Film updatedFilm = film(100);
+        updatedFilm.setId(1L);
+        filmStorage.update(updatedFilm);
+        User updatedUser = user(100);
+        updatedUser.setId(1L);
+        userStorage.update(updatedUser);
+
+        // процесс будто упал: журнал не закрыт, снимок старше последних изменений
+        InMemoryUserStorage restoredUsers = new InMemoryUserStorage();
+        InMemoryFilmStorage restoredFilms = new InMemoryFilmStorage(restoredUsers);
+        MemoryStoragePersistence restored = new MemoryStoragePersistence(restoredFilms, restoredUsers, directory);
+        assertRestored(restoredFilms, restoredUsers);
+        assertEquals(USERS + 1, restoredUsers.create(user(USERS)).getId(), "id должны продолжаться после последнего");
+        userStorage.create(user(USERS));
+
+        // после штатной остановки все изменения в снимке
+        restored.close();
+        InMemoryUserStorage reopenedUsers = new InMemoryUserStorage();
+        InMemoryFilmStorage reopenedFilms = new InMemoryFilmStorage(reopenedUsers);
+        new MemoryStoragePersistence(reopenedFilms, reopenedUsers, directory).close();
+        assertRestored(reopenedFilms, reopenedUsers);
+    }
+
+    private void assertRestored(InMemoryFilmStorage restoredFilms, InMemoryUserStorage restoredUsers) {
+        assertEquals(List.copyOf(userStorage.findAll()), List.copyOf(restoredUsers.findAll()));
+        assertEquals(filmStorage.findAll().size(), restoredFilms.findAll().size());
+        for (Film film : filmStorage.findAll()) {
+            Film restoredFilm = restoredFilms.findById(film.getId()).orElseThrow();
+            assertEquals(film.getName(), restoredFilm.getName());
+            assertEquals(film.getReleaseDate(), restoredFilm.getReleaseDate());
+            assertEquals(film.getLikes(), restoredFilm.getLikes(), "Лайки фильма " + film.getId() + " не восстановлены");
+        }
+        assertEquals(filmStorage.getLikeCounts(), restoredFilms.getLikeCounts());
+        assertEquals(List.copyOf(filmStorage.getPopularFilms(FILMS)), List.copyOf(restoredFilms.getPopularFilms(FILMS)));
+    }
+
+    @Test
+    void primitiveCollections_MatchJavaCollections() {
+        // узкий диапазон ключей, чтобы часто попадать в существующие и удалять из середины цепочек
+        Random random = new Random(3);
+        LongHashSet set = new LongHashSet();
+        LongFlagMap map = new LongFlagMap();
+        Set<Long> expectedSet = new HashSet<>();
+        Map<Long, Boolean> expectedMap = new HashMap<>();
+        for (int i = 0; i < 200_000; i++) {
+            long key = 1 + random.nextInt(2_000);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expectedSet.remove(key), set.remove(key));
+                assertEquals(expectedMap.remove(key) != null, map.remove(key));
+            } else {
+                boolean flag = random.nextBoolean();
+                assertEquals(expectedSet.add(key), set.add(key));
+                assertEquals(expectedMap.put(key, flag) == null, map.put(key, flag));
+            }
+        }
+        assertEquals(expectedSet.size(), set.size());
+        assertEquals(expectedMap.size(), map.size());
+        for (long key = 1; key <= 2_000; key++) {
+            assertEquals(expectedSet.contains(key), set.contains(key));
+            assertEquals(expectedMap.getOrDefault(key, false), map.isFlagged(key));
+        }
+        long[] keys = set.toArray();
+        Arrays.sort(keys);
+        assertArrayEquals(expectedSet.stream().mapToLong(Long::longValue).sorted().toArray(), keys);
+    }
+
+    @Test
+    void createThroughput_DoesNotDegradeWithSize() throws Exception {
+        int batch = 20_000;
+        long small = bestCreateTime(batch);
+        runSequentially(300_000, i -> userStorage.create(user(i)));
+        long large = bestCreateTime(batch);
+        // при поиске максимального id на каждое создание время росло бы пропорционально размеру хранилища
+        assertTrue(large < small * 10, String.format("%d пользователей создаются за %d мкс при пустом хранилище "
+                + "и за %d мкс при 300 000 записей", batch, small / 1000, large / 1000));
+    }
+
+    private long bestCreateTime(int batch) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int attempt = 0; attempt < 3; attempt++) {
+            long start = System.nanoTime();
+            runSequentially(batch, i -> userStorage.create(user(i)));
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private void runSequentially(int count, IntTask task) throws Exception {
+        for (int i = 0; i < count; i++) {
+            task.run(i);
+        }
+    }
+
+    // раздает задачи 0..count-1 потокам по кругу и ждет всех; ошибка любой задачи валит тест
+    private void runConcurrently(int count, IntTask task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int first = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = first; i < count; i += THREADS) {
+                        task.run(i);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static User user(int i) {
+        User user = new User();
+        user.setEmail("user" + i + "@mail.ru");
+        user.setLogin("user" + i);
+        user.setBirthday(LocalDate.of(1990, 1, 1));
+        return user;
+    }
+
+    private static Film film(int i) {
+        Film film = new Film();
+        film.setName("film" + i);
+        film.setDuration(100);
+        film.setReleaseDate(LocalDate.of(2000, 1, 1));
+        return film;
+    }
+
+    @FunctionalInterface
+    private interface IntTask {
+        void run(int i) throws Exception;
+    }
+}
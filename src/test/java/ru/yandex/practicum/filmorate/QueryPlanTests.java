@@ -0,0 +1,105 @@
+package ru.yandex.practicum.filmorate;
+
+import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.TestFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.storage.FilmDbStorage;
+import ru.yandex.practicum.filmorate.storage.GenreDbStorage;
+import ru.yandex.practicum.filmorate.storage.UserDbStorage;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// планы всех запросов *_QUERY из DbStorage-классов: полный просмотр таблицы только там, где он нужен по смыслу
+@JdbcTest
+@AutoConfigureTestDatabase
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class QueryPlanTests {
+
+    // запросы, которым полный просмотр таблицы нужен по смыслу (выгрузка всего каталога, сверка)
+    private static final Set<String> FULL_SCAN_ALLOWED = Set.of(
+            "FilmDbStorage.FIND_ALL_QUERY",
+            "FilmDbStorage.FIND_LIKE_COUNTS_QUERY",
+            "FilmDbStorage.FIND_ALL_LIKES_QUERY",
+            "FilmDbStorage.RECONCILE_LIKES_COUNT_QUERY",
+            "UserDbStorage.FIND_ALL_QUERY",
+            "UserDbStorage.FIND_ALL_IDS_QUERY",
+            "GenreDbStorage.FIND_ALL_QUERY"
+    );
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        // на пустых таблицах оптимизатор выбирает полный просмотр как самый дешевый,
+        // поэтому планы проверяются на небольшом наборе данных со статистикой
+        jdbcTemplate.update("DELETE FROM user_friends");
+        jdbcTemplate.update("DELETE FROM likes");
+        jdbcTemplate.update("DELETE FROM film_genres");
+        jdbcTemplate.update("DELETE FROM films");
+        jdbcTemplate.update("DELETE FROM users");
+        jdbcTemplate.update("""
+                INSERT INTO users (login, email, name, birthday)
+                SELECT 'login' || x, 'user' || x || '@mail.ru', 'name' || x, DATE '2000-01-01'
+                FROM SYSTEM_RANGE(1, 500)""");
+        jdbcTemplate.update("""
+                INSERT INTO films (name, description, release_date, duration, rating_id)
+                SELECT 'film' || x, 'description', DATE '2000-01-01', 100, MOD(x, 5) + 1
+                FROM SYSTEM_RANGE(1, 500)""");
+        jdbcTemplate.update("""
+                INSERT INTO likes (user_id, film_id)
+                SELECT u.id, f.id FROM users u INNER JOIN films f ON MOD(u.id + f.id, 50) = 0""");
+        jdbcTemplate.update("""
+                INSERT INTO user_friends (user_id, friend_id, confirmed)
+                SELECT u.id, f.id, TRUE FROM users u INNER JOIN users f ON MOD(u.id * 7 + f.id, 40) = 0
+                WHERE u.id <> f.id""");
+        jdbcTemplate.update("""
+                INSERT INTO film_genres (film_id, genre_id)
+                SELECT f.id, g.id FROM films f INNER JOIN genres g ON MOD(f.id, 6) + 1 = g.id""");
+        jdbcTemplate.execute("ANALYZE");
+    }
+
+    @TestFactory
+    Stream<DynamicTest> queriesDoNotScanWholeTables() {
+        return Stream.of(FilmDbStorage.class, UserDbStorage.class, GenreDbStorage.class)
+                .flatMap(storage -> Arrays.stream(storage.getDeclaredFields())
+                        .filter(QueryPlanTests::isQueryConstant)
+                        .map(field -> DynamicTest.dynamicTest(storage.getSimpleName() + "." + field.getName(),
+                                () -> checkPlan(storage.getSimpleName() + "." + field.getName(), read(field)))));
+    }
+
+    private void checkPlan(String name, String query) {
+        // шаблоны с IN (%s) проверяются с одним параметром, значения параметров на план не влияют
+        String sql = query.replace("%s", "?");
+        Object[] params = new Object[(int) sql.chars().filter(c -> c == '?').count()];
+        Arrays.fill(params, 1);
+        String plan = String.join("\n", jdbcTemplate.queryForList("EXPLAIN " + sql, String.class, params));
+
+        if (!FULL_SCAN_ALLOWED.contains(name)) {
+            assertThat(plan)
+                    .as("План запроса %s:%n%s", name, plan)
+                    .doesNotContainIgnoringCase(".tableScan");
+        }
+    }
+
+    private static boolean isQueryConstant(Field field) {
+        int modifiers = field.getModifiers();
+        return Modifier.isStatic(modifiers) && Modifier.isFinal(modifiers)
+                && field.getType() == String.class && field.getName().endsWith("_QUERY");
+    }
+
+    private static String read(Field field) throws IllegalAccessException {
+        field.setAccessible(true);
+        return (String) field.get(null);
+    }
+}
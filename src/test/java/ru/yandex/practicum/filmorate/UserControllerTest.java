@@ -11,6 +11,7 @@ import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import ru.yandex.practicum.filmorate.controller.UserController;
 import ru.yandex.practicum.filmorate.dto.NewUserRequest;
+import ru.yandex.practicum.filmorate.dto.PageDto;
 import ru.yandex.practicum.filmorate.dto.UpdateUserRequest;
 import ru.yandex.practicum.filmorate.dto.UserDto;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
@@ -26,7 +27,7 @@ import static org.junit.jupiter.api.Assertions.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
-@SpringBootTest
+@SpringBootTest(properties = "filmorate.query-budget.strict=true")
 @AutoConfigureMockMvc
 class UserControllerTest {
 
@@ -72,6 +73,29 @@ class UserControllerTest {
         assertEquals(1, users.size(), "Должен вернуться 1 пользователь");
     }
 
+    @Test
+    void findPage_ShouldWalkUsersByCursor() {
+        controller.create(validUser);
+        controller.create(validUser.toBuilder().login("second").build());
+        controller.create(validUser.toBuilder().login("third").build());
+
+        PageDto<UserDto> first = controller.findPage(0, 2);
+        assertEquals(2, first.getItems().size(), "На первой странице должно быть 2 пользователя");
+        assertNotNull(first.getNextCursor(), "После первой страницы должен быть курсор");
+
+        PageDto<UserDto> second = controller.findPage(first.getNextCursor(), 2);
+        assertEquals(1, second.getItems().size(), "На второй странице должен быть 1 пользователь");
+        assertEquals("third", second.getItems().iterator().next().getLogin());
+        assertNull(second.getNextCursor(), "Последняя страница не должна возвращать курсор");
+    }
+
+    @SneakyThrows
+    @Test
+    void findPage_InvalidLimit_ReturnsBadRequest() {
+        mockMvc.perform(get("/users").param("limit", "0"))
+                .andExpect(status().isBadRequest());
+    }
+
     @SneakyThrows
     @Test
     void createUser_ValidData_ReturnsOk() {